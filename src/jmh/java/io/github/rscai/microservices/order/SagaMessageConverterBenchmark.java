@@ -0,0 +1,74 @@
+package io.github.rscai.microservices.order;
+
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+// the converters as RabbitConfig sets them up, the binary one with writes enabled
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SagaMessageConverterBenchmark {
+
+  private Jackson2JsonMessageConverter jsonConverter;
+  private SagaBinaryMessageConverter binaryConverter;
+  private SubmitOrderSaga saga;
+  private Message jsonMessage;
+  private Message binaryMessage;
+
+  @Setup
+  public void setUp() {
+    DefaultClassMapper classMapper = new DefaultClassMapper();
+    classMapper.setIdClassMapping(
+        Collections.singletonMap(SubmitOrderSaga.class.getName(), SubmitOrderSaga.class));
+    jsonConverter = new Jackson2JsonMessageConverter();
+    jsonConverter.setClassMapper(classMapper);
+    binaryConverter = new SagaBinaryMessageConverter(jsonConverter, true);
+    saga = new SubmitOrderSaga();
+    saga.setId("0170d2b5-5a6e-7c3a-9d1f-2a8e4b9c1d7e");
+    saga.setOrderId("0170d2b5-5a6e-7000-8000-0123456789ab");
+    saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY);
+    saga.setCreatedAt(new Date());
+    saga.setUpdatedAt(new Date());
+    jsonMessage = jsonConverter.toMessage(saga, new MessageProperties());
+    binaryMessage = binaryConverter.toMessage(saga, new MessageProperties());
+  }
+
+  @Benchmark
+  public Message jsonToMessage() {
+    return jsonConverter.toMessage(saga, new MessageProperties());
+  }
+
+  @Benchmark
+  public Message binaryToMessage() {
+    return binaryConverter.toMessage(saga, new MessageProperties());
+  }
+
+  @Benchmark
+  public Object jsonFromMessage() {
+    return jsonConverter.fromMessage(jsonMessage);
+  }
+
+  @Benchmark
+  public Object binaryFromMessage() {
+    return binaryConverter.fromMessage(binaryMessage);
+  }
+}
@@ -0,0 +1,56 @@
+package io.github.rscai.microservices.order.controller;
+
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.OrderItem;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// unit prices and amount of an order as create prices it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderPricingBenchmark {
+
+  @Param({"1", "10", "100"})
+  private int itemCount;
+  private Order order;
+  private Map<String, BigDecimal> unitPrices;
+
+  @Setup
+  public void setUp() {
+    List<OrderItem> items = new ArrayList<>();
+    unitPrices = new HashMap<>();
+    for (int i = 0; i < itemCount; i++) {
+      String productId = String.format("product%d", i);
+      items.add(new OrderItem(productId, i % 5 + 1, null));
+      unitPrices.put(productId, BigDecimal.valueOf(1999 + i, 2));
+    }
+    order = new Order();
+    order.setCustomerId("customer1");
+    order.setItems(items);
+  }
+
+  @Benchmark
+  public Optional<String> price() {
+    return OrderController.price(order, unitPrices);
+  }
+}
@@ -0,0 +1,93 @@
+package io.github.rscai.microservices.order.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.Order.State;
+import io.github.rscai.microservices.order.model.OrderItem;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.PagedModel;
+import org.springframework.hateoas.PagedModel.PageMetadata;
+import org.springframework.hateoas.mediatype.MessageResolver;
+import org.springframework.hateoas.mediatype.hal.CurieProvider;
+import org.springframework.hateoas.mediatype.hal.Jackson2HalModule;
+import org.springframework.hateoas.server.core.AnnotationLinkRelationProvider;
+
+// HAL rendering of GET /orders/{id} and of a search page
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSerializationBenchmark {
+
+  private static final String BASE_URI = "http://localhost:8083/orders";
+  @Param({"20"})
+  private int pageSize;
+  private ObjectMapper objectMapper;
+  private EntityModel<Order> orderModel;
+  private PagedModel<EntityModel<Order>> pagedModel;
+
+  @Setup
+  public void setUp() {
+    objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new Jackson2HalModule());
+    objectMapper.setHandlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+        new AnnotationLinkRelationProvider(), CurieProvider.NONE, MessageResolver.DEFAULTS_ONLY));
+    orderModel = model(order(0));
+    List<EntityModel<Order>> orders = new ArrayList<>();
+    for (int i = 0; i < pageSize; i++) {
+      orders.add(model(order(i)));
+    }
+    pagedModel = new PagedModel<>(orders, new PageMetadata(pageSize, 0, 1000),
+        new Link(BASE_URI + "/search/stateIn?state=OPEN&page=0&size=" + pageSize),
+        new Link(BASE_URI + "/search/stateIn?state=OPEN&page=1&size=" + pageSize, "next"));
+  }
+
+  @Benchmark
+  public String serializeOrder() throws JsonProcessingException {
+    return objectMapper.writeValueAsString(orderModel);
+  }
+
+  @Benchmark
+  public String serializePage() throws JsonProcessingException {
+    return objectMapper.writeValueAsString(pagedModel);
+  }
+
+  private static Order order(int i) {
+    Order order = new Order();
+    order.setId(String.format("0170d2b55a6e7000800000000000%04x", i));
+    order.setCustomerId("customer1");
+    order.setState(State.OPEN);
+    order.setItems(Arrays.asList(
+        new OrderItem("productA", 2, BigDecimal.valueOf(1999, 2)),
+        new OrderItem("productB", 1, BigDecimal.valueOf(500, 2))));
+    order.setAmount(BigDecimal.valueOf(4498, 2));
+    order.setCreatedAt(new Date());
+    order.setUpdatedAt(new Date());
+    return order;
+  }
+
+  private static EntityModel<Order> model(Order order) {
+    return new EntityModel<>(order, new Link(BASE_URI + "/" + order.getId()),
+        new Link(BASE_URI + "/" + order.getId(), "order"));
+  }
+}
@@ -0,0 +1,71 @@
+package io.github.rscai.microservices.order.service;
+
+import io.github.rscai.microservices.order.model.InventoryItem;
+import io.github.rscai.microservices.order.model.InventoryItemQuantityChange;
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.OrderItem;
+import io.github.rscai.microservices.order.saga.SagaException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.PagedModel;
+import org.springframework.hateoas.PagedModel.PageMetadata;
+
+// productId indexing and change building of the decrease inventory step, without round trips
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecreaseInventoryBenchmark {
+
+  @Param({"1", "10", "100"})
+  private int itemCount;
+  private Order order;
+  private PagedModel<EntityModel<InventoryItem>> inventoryItems;
+  private Map<String, InventoryItem> itemIndexByProductId;
+
+  @Setup
+  public void setUp() {
+    List<OrderItem> items = new ArrayList<>();
+    List<EntityModel<InventoryItem>> inventoryItemModels = new ArrayList<>();
+    for (int i = 0; i < itemCount; i++) {
+      String productId = String.format("product%d", i);
+      items.add(new OrderItem(productId, i % 5 + 1, BigDecimal.TEN));
+      inventoryItemModels.add(new EntityModel<>(new InventoryItem(String.format("item%d", i),
+          productId, 1000, BigDecimal.TEN, new Date(), new Date())));
+    }
+    order = new Order();
+    order.setId("0170d2b55a6e70008000000000000001");
+    order.setItems(items);
+    inventoryItems = new PagedModel<>(inventoryItemModels,
+        new PageMetadata(itemCount, 0, itemCount));
+    itemIndexByProductId = InventoryService.indexByProductId(inventoryItems);
+  }
+
+  @Benchmark
+  public Map<String, InventoryItem> indexInventoryItems() {
+    return InventoryService.indexByProductId(inventoryItems);
+  }
+
+  @Benchmark
+  public List<InventoryItemQuantityChange> buildQuantityChanges() throws SagaException {
+    return SubmitOrderSagaHandler.buildQuantityChanges(order, itemIndexByProductId, -1);
+  }
+}
@@ -0,0 +1,47 @@
+package io.github.rscai.microservices.order.service;
+
+import io.github.rscai.microservices.order.saga.SagaException;
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// step dispatch of processSubmitOrderEvent, for the steps which end the saga without publishing
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitOrderSagaDispatchBenchmark {
+
+  @Param({"SUBMITTED_STATUS", "DECREASED_INVENTORY_ROLLBACK"})
+  private String step;
+  private SubmitOrderSagaHandler handler;
+  private SubmitOrderSaga saga;
+
+  @Setup
+  public void setUp() {
+    // these steps do not touch any collaborator of the handler
+    handler = new SubmitOrderSagaHandler();
+    saga = new SubmitOrderSaga();
+    saga.setId("0170d2b5-5a6e-7c3a-9d1f-2a8e4b9c1d7e");
+    saga.setOrderId("0170d2b55a6e70008000000000000001");
+  }
+
+  @Benchmark
+  public SubmitOrderSaga dispatch() throws SagaException {
+    saga.setStep(step);
+    handler.processSubmitOrderEvent(saga);
+    return saga;
+  }
+}
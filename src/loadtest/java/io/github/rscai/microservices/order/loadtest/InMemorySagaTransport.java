@@ -0,0 +1,171 @@
+package io.github.rscai.microservices.order.loadtest;
+
+import io.github.rscai.microservices.order.saga.Saga;
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import io.github.rscai.microservices.order.service.SagaEventPublisher;
+import io.github.rscai.microservices.order.service.SubmitOrderSagaHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
+
+// stands in for the broker: saga messages published through this template are converted back
+// and handed to the saga handler on consumer threads, one thread per shard of orders
+@Slf4j
+public class InMemorySagaTransport extends RabbitTemplate {
+
+  private final ObjectProvider<SubmitOrderSagaHandler> sagaHandler;
+  private final SagaCompletionTracker completionTracker;
+  private final int maxAttempts;
+  private final long retryInterval;
+  private final List<BlockingQueue<Delivery>> queues = new ArrayList<>();
+  private final List<Thread> consumers = new ArrayList<>();
+  private final ScheduledExecutorService redeliveries;
+  private String retryLaterExchange;
+  private volatile boolean running;
+
+  // the connection factory is never connected, a template only requires one
+  public InMemorySagaTransport(ConnectionFactory connectionFactory,
+      MessageConverter messageConverter, ObjectProvider<SubmitOrderSagaHandler> sagaHandler,
+      SagaCompletionTracker completionTracker, int consumerCount, int maxAttempts,
+      long retryInterval) {
+    super(connectionFactory);
+    setMessageConverter(messageConverter);
+    this.sagaHandler = sagaHandler;
+    this.completionTracker = completionTracker;
+    this.maxAttempts = maxAttempts;
+    this.retryInterval = retryInterval;
+    AtomicInteger threadNumber = new AtomicInteger();
+    for (int shard = 0; shard < consumerCount; shard++) {
+      BlockingQueue<Delivery> queue = new LinkedBlockingQueue<>();
+      queues.add(queue);
+      Thread consumer = new Thread(() -> consume(queue),
+          String.format("saga-consumer-%d", threadNumber.incrementAndGet()));
+      consumer.setDaemon(true);
+      consumers.add(consumer);
+    }
+    redeliveries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "saga-redelivery");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void startConsumers() {
+    running = true;
+    consumers.forEach(Thread::start);
+  }
+
+  public void shutdown() {
+    running = false;
+    consumers.forEach(Thread::interrupt);
+    redeliveries.shutdownNow();
+  }
+
+  public void setRetryLaterExchange(String retryLaterExchange) {
+    this.retryLaterExchange = retryLaterExchange;
+  }
+
+  public int getQueued() {
+    return queues.stream().mapToInt(BlockingQueue::size).sum();
+  }
+
+  @Override
+  public void send(String exchange, String routingKey, Message message,
+      CorrelationData correlationData) throws AmqpException {
+    // the message goes through the configured converter as it would on the wire
+    Object payload = getMessageConverter().fromMessage(message);
+    if (exchange.equals(retryLaterExchange) && payload instanceof SubmitOrderSaga) {
+      // stands in for the delay queues, every attempt waits the retry interval
+      String orderId = ((SubmitOrderSaga) payload).getOrderId();
+      redeliveries.schedule(() -> enqueue(new Delivery(orderId, message, 1)), retryInterval,
+          TimeUnit.MILLISECONDS);
+      return;
+    }
+    // only the saga exchange is consumed, dead letters are dropped
+    if (!getExchange().equals(exchange) || !(payload instanceof SubmitOrderSaga)) {
+      log.debug(String.format("Drop %s message to %s", payload.getClass().getSimpleName(),
+          exchange));
+      return;
+    }
+    enqueue(new Delivery(((SubmitOrderSaga) payload).getOrderId(), message, 1));
+  }
+
+  private void enqueue(Delivery delivery) {
+    // steps of one order are consumed in sequence, as with sharded single active consumers
+    String orderId = delivery.orderId;
+    int shard = orderId == null ? 0 : Math.floorMod(orderId.hashCode(), queues.size());
+    queues.get(shard).add(delivery);
+  }
+
+  private void consume(BlockingQueue<Delivery> queue) {
+    while (running) {
+      Delivery delivery;
+      try {
+        delivery = queue.take();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      process(delivery);
+    }
+  }
+
+  private void process(Delivery delivery) {
+    // every attempt converts the message again, the handler changes the step of the event
+    SubmitOrderSaga saga = (SubmitOrderSaga) getMessageConverter().fromMessage(delivery.message);
+    String step = saga.getStep();
+    try {
+      // the handler defers the event itself while inventory is unavailable
+      sagaHandler.getObject().processSubmitOrderEvent(saga,
+          (Integer) delivery.message.getMessageProperties()
+              .getHeader(SagaEventPublisher.RETRY_ATTEMPT_HEADER));
+    } catch (Exception ex) {
+      log.warn(String.format("Saga of order %s failed at step %s: %s", saga.getOrderId(), step,
+          ex.getMessage()));
+      redeliver(delivery, ex);
+      return;
+    }
+    // the final steps are set on the received event and not published any more
+    if (Saga.COMPLETED.equals(saga.getStep()) || Saga.ROLLBACK.equals(saga.getStep())) {
+      completionTracker.complete(saga.getOrderId(), saga.getStep());
+    }
+  }
+
+  private void redeliver(Delivery delivery, Exception cause) {
+    if (delivery.attempts >= maxAttempts) {
+      log.error(String.format("Give up saga of order %s after %d attempts",
+          delivery.orderId, delivery.attempts), cause);
+      completionTracker.fail(delivery.orderId, cause);
+      return;
+    }
+    redeliveries.schedule(() -> enqueue(
+        new Delivery(delivery.orderId, delivery.message, delivery.attempts + 1)),
+        retryInterval, TimeUnit.MILLISECONDS);
+  }
+
+  private static class Delivery {
+
+    private final String orderId;
+    private final Message message;
+    private final int attempts;
+
+    private Delivery(String orderId, Message message, int attempts) {
+      this.orderId = orderId;
+      this.message = message;
+      this.attempts = attempts;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package io.github.rscai.microservices.order.loadtest;
+
+import io.github.rscai.microservices.order.OrderApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+// runs the order service with the dev and loadtest profiles against local stand-ins of its
+// dependencies, LoadTestRunner drives the load and the application exits when it is done
+public class LoadTestApplication {
+
+  public static void main(String[] args) throws Exception {
+    // UAA has to answer before the context starts, the JWK set and the token are fetched early
+    StubServer stubServer = new StubServer(Integer.getInteger("loadtest.stub.port", 9199),
+        Long.getLong("loadtest.inventory.latency-ms", 20),
+        Double.parseDouble(System.getProperty("loadtest.inventory.error-rate", "0")),
+        Integer.getInteger("loadtest.stub.threads", 64));
+    stubServer.start();
+    int exitCode;
+    try {
+      SpringApplication application = new SpringApplication(OrderApplication.class);
+      application.setAdditionalProfiles("dev", "loadtest");
+      application.addInitializers(context -> context.getBeanFactory()
+          .registerSingleton("stubServer", stubServer));
+      ConfigurableApplicationContext context = application.run(args);
+      exitCode = SpringApplication.exit(context);
+    } finally {
+      stubServer.stop();
+    }
+    System.exit(exitCode);
+  }
+}
@@ -0,0 +1,97 @@
+package io.github.rscai.microservices.order.loadtest;
+
+import io.github.rscai.microservices.order.SagaBinaryMessageConverter;
+import io.github.rscai.microservices.order.model.OrderChange;
+import io.github.rscai.microservices.order.model.ProductPriceChange;
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import io.github.rscai.microservices.order.service.SubmitOrderSagaHandler;
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+// replaces RabbitConfig, saga messages travel through InMemorySagaTransport instead of a broker
+@Profile("loadtest")
+@Configuration
+public class LoadTestConfig {
+
+  @Value("${mq.submit-order-saga.exchange}")
+  private String exchange;
+  @Value("${mq.submit-order-saga.retry-later.exchange:submit-order-saga.retry-later}")
+  private String retryLaterExchange;
+  @Value("${mq.submit-order-saga.wire-format:json}")
+  private String sagaWireFormat;
+  @Value("${loadtest.transport.consumers:4}")
+  private int consumers;
+  @Value("${loadtest.transport.max-attempts:5}")
+  private int maxAttempts;
+  @Value("${loadtest.transport.retry-interval:1000}")
+  private long retryInterval;
+
+  @Bean
+  public SagaCompletionTracker sagaCompletionTracker() {
+    return new SagaCompletionTracker();
+  }
+
+  @Bean(initMethod = "startConsumers", destroyMethod = "shutdown")
+  public InMemorySagaTransport rabbitTemplate(ConnectionFactory connectionFactory,
+      ObjectProvider<SubmitOrderSagaHandler> sagaHandler) {
+    // the handler publishes the next step through this template, so it is looked up lazily
+    InMemorySagaTransport transport = new InMemorySagaTransport(connectionFactory,
+        sagaMessageConverter(), sagaHandler, sagaCompletionTracker(), consumers, maxAttempts,
+        retryInterval);
+    transport.setExchange(exchange);
+    transport.setRetryLaterExchange(retryLaterExchange);
+    return transport;
+  }
+
+  @Bean
+  public DirectRabbitListenerContainerFactory sagaListenerContainerFactory(
+      ConnectionFactory connectionFactory) {
+    DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+    factory.setConnectionFactory(connectionFactory);
+    factory.setAutoStartup(false);
+    return factory;
+  }
+
+  @Bean
+  public SimpleRabbitListenerContainerFactory sagaBatchListenerContainerFactory(
+      ConnectionFactory connectionFactory) {
+    SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+    factory.setConnectionFactory(connectionFactory);
+    factory.setBatchListener(true);
+    factory.setConsumerBatchEnabled(true);
+    factory.setAutoStartup(false);
+    return factory;
+  }
+
+  @Bean
+  public SagaBinaryMessageConverter sagaMessageConverter() {
+    return new SagaBinaryMessageConverter(jsonMessageConverter(),
+        "binary".equals(sagaWireFormat));
+  }
+
+  @Bean
+  @Primary
+  public Jackson2JsonMessageConverter jsonMessageConverter() {
+    // the same type mapping as RabbitConfig
+    Jackson2JsonMessageConverter jsonConverter = new Jackson2JsonMessageConverter();
+    DefaultClassMapper classMapper = new DefaultClassMapper();
+    Map<String, Class<?>> idClassMapping = new HashMap<>();
+    idClassMapping.put(SubmitOrderSaga.class.getName(), SubmitOrderSaga.class);
+    idClassMapping.put(ProductPriceChange.class.getName(), ProductPriceChange.class);
+    idClassMapping.put(OrderChange.class.getName(), OrderChange.class);
+    classMapper.setIdClassMapping(idClassMapping);
+    jsonConverter.setClassMapper(classMapper);
+    return jsonConverter;
+  }
+}
@@ -0,0 +1,269 @@
+package io.github.rscai.microservices.order.loadtest;
+
+import io.github.rscai.microservices.order.saga.Saga;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+// drives create -> submit -> saga completion at a fixed arrival rate and reports the latency
+// percentiles and the throughput of every stage
+@Slf4j
+@Profile("loadtest")
+@Component
+public class LoadTestRunner implements ApplicationRunner {
+
+  @Autowired
+  private StubServer stubServer;
+  @Autowired
+  private SagaCompletionTracker completionTracker;
+  @Autowired
+  private InMemorySagaTransport sagaTransport;
+  @Autowired
+  private Environment environment;
+  @Value("${loadtest.rate:50}")
+  private double rate;
+  @Value("${loadtest.duration-seconds:60}")
+  private long durationSeconds;
+  @Value("${loadtest.warmup-seconds:10}")
+  private long warmupSeconds;
+  @Value("${loadtest.concurrency:64}")
+  private int concurrency;
+  @Value("${loadtest.items-per-order:3}")
+  private int itemsPerOrder;
+  @Value("${loadtest.products:1000}")
+  private int products;
+  @Value("${loadtest.saga-timeout-seconds:30}")
+  private long sagaTimeoutSeconds;
+
+  private RestTemplate restTemplate;
+  private String ordersUrl;
+  private HttpHeaders headers;
+
+  @Override
+  public void run(ApplicationArguments args) throws InterruptedException {
+    restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(
+        HttpClients.custom().setMaxConnTotal(concurrency).setMaxConnPerRoute(concurrency)
+            .build()));
+    ordersUrl = String.format("http://localhost:%s/orders",
+        environment.getProperty("local.server.port"));
+    headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setBearerAuth(stubServer.issueToken("loadtest", "order.use", "order.operate"));
+
+    log.info(String.format("Warm up for %d s at %.1f orders/s", warmupSeconds, rate));
+    drive(warmupSeconds, new Stats());
+    Stats stats = new Stats();
+    log.info(String.format("Measure for %d s at %.1f orders/s", durationSeconds, rate));
+    drive(durationSeconds, stats);
+    report(stats);
+  }
+
+  private void drive(long seconds, Stats stats) throws InterruptedException {
+    // a bounded pool, iterations which find no free worker are dropped instead of delayed
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(concurrency));
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    stats.inventoryRequestsAtStart = stubServer.getInventoryRequests();
+    stats.inventoryErrorsAtStart = stubServer.getInventoryErrors();
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(seconds);
+    // open model: arrivals follow the schedule whatever the latency of earlier orders
+    for (long intendedNanos = startNanos; intendedNanos < endNanos;
+        intendedNanos += intervalNanos) {
+      long waitNanos = intendedNanos - System.nanoTime();
+      if (waitNanos > 0) {
+        LockSupport.parkNanos(waitNanos);
+      }
+      long scheduledNanos = intendedNanos;
+      try {
+        workers.execute(() -> iterate(scheduledNanos, stats));
+      } catch (RejectedExecutionException ex) {
+        stats.dropped.incrementAndGet();
+      }
+    }
+    workers.shutdown();
+    workers.awaitTermination(1, TimeUnit.MINUTES);
+    stats.elapsedNanos = System.nanoTime() - startNanos;
+    awaitSagas(stats);
+  }
+
+  private void iterate(long scheduledNanos, Stats stats) {
+    long createStartNanos = System.nanoTime();
+    String id;
+    try {
+      Map<?, ?> created = restTemplate.postForObject(ordersUrl,
+          new HttpEntity<>(newOrder(), headers), Map.class);
+      id = created == null ? null : (String) created.get("id");
+    } catch (RestClientException ex) {
+      log.debug(ex.getMessage());
+      stats.create.fail();
+      stats.total.fail();
+      return;
+    }
+    if (id == null) {
+      stats.create.fail();
+      stats.total.fail();
+      return;
+    }
+    stats.create.record(createStartNanos);
+
+    // expected before the submit, the saga may complete before the response arrives
+    CompletableFuture<String> completion = completionTracker.expect(id);
+    long submitStartNanos = System.nanoTime();
+    try {
+      restTemplate.exchange(String.format("%s/%s/submit", ordersUrl, id), HttpMethod.PUT,
+          new HttpEntity<>(headers), Void.class);
+    } catch (RestClientException ex) {
+      log.debug(ex.getMessage());
+      completionTracker.forget(id);
+      stats.submit.fail();
+      stats.total.fail();
+      return;
+    }
+    stats.submit.record(submitStartNanos);
+
+    // the saga starts once the submit is committed, the outbox relay picks it up from there
+    long sagaStartNanos = System.nanoTime();
+    stats.sagas.add(completion);
+    completion.whenComplete((finalStep, ex) -> {
+      if (ex == null && Saga.COMPLETED.equals(finalStep)) {
+        stats.saga.record(sagaStartNanos);
+        // measured from the scheduled start, so time spent waiting for a worker is included
+        stats.total.record(scheduledNanos);
+      } else {
+        stats.saga.fail();
+        stats.total.fail();
+      }
+    });
+  }
+
+  private void awaitSagas(Stats stats) throws InterruptedException {
+    CompletableFuture<Void> all = CompletableFuture
+        .allOf(stats.sagas.toArray(new CompletableFuture[0]));
+    try {
+      all.get(sagaTimeoutSeconds, TimeUnit.SECONDS);
+    } catch (ExecutionException ex) {
+      // failed sagas are counted by their own futures
+    } catch (TimeoutException ex) {
+      for (CompletableFuture<String> saga : stats.sagas) {
+        if (saga.completeExceptionally(ex)) {
+          stats.timedOut.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private Map<String, Object> newOrder() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    List<Map<String, Object>> items = new ArrayList<>();
+    for (int i = 0; i < itemsPerOrder; i++) {
+      Map<String, Object> item = new HashMap<>();
+      item.put("productId", String.format("product-%d", random.nextInt(products)));
+      item.put("quantity", 1 + random.nextInt(3));
+      items.add(item);
+    }
+    Map<String, Object> order = new HashMap<>();
+    order.put("customerId", String.format("customer-%d", random.nextInt(10000)));
+    order.put("items", items);
+    return order;
+  }
+
+  private void report(Stats stats) {
+    double seconds = stats.elapsedNanos / 1e9;
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%nTarget %.1f orders/s for %.1f s, dropped %d, saga timed out %d,"
+            + " sagas queued %d, inventory requests %d, inventory errors %d%n", rate, seconds,
+        stats.dropped.get(), stats.timedOut.get(), sagaTransport.getQueued(),
+        stubServer.getInventoryRequests() - stats.inventoryRequestsAtStart,
+        stubServer.getInventoryErrors() - stats.inventoryErrorsAtStart));
+    report.append(String.format("%-7s %8s %7s %9s %9s %9s %9s %9s%n", "stage", "count",
+        "errors", "per sec", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+    for (Stage stage : stats.stages()) {
+      Histogram histogram = stage.histogram;
+      report.append(String.format("%-7s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", stage.name,
+          histogram.getTotalCount(), stage.errors.get(), histogram.getTotalCount() / seconds,
+          millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+          millis(histogram.getValueAtPercentile(99)), millis(histogram.getMaxValue())));
+    }
+    log.info(report.toString());
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+
+  private static class Stats {
+
+    private final Stage create = new Stage("create");
+    private final Stage submit = new Stage("submit");
+    private final Stage saga = new Stage("saga");
+    private final Stage total = new Stage("total");
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final Queue<CompletableFuture<String>> sagas = new ConcurrentLinkedQueue<>();
+    private long inventoryRequestsAtStart;
+    private long inventoryErrorsAtStart;
+    private long elapsedNanos;
+
+    private List<Stage> stages() {
+      List<Stage> stages = new ArrayList<>();
+      stages.add(create);
+      stages.add(submit);
+      stages.add(saga);
+      stages.add(total);
+      return stages;
+    }
+  }
+
+  private static class Stage {
+
+    private final String name;
+    // microseconds, auto resized and safe to record from many threads
+    private final Histogram histogram = new ConcurrentHistogram(3);
+    private final AtomicLong errors = new AtomicLong();
+
+    private Stage(String name) {
+      this.name = name;
+    }
+
+    private void record(long startNanos) {
+      histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    private void fail() {
+      errors.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package io.github.rscai.microservices.order.loadtest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// completes the future of an order once its saga reached a final step
+public class SagaCompletionTracker {
+
+  private final ConcurrentMap<String, CompletableFuture<String>> pending =
+      new ConcurrentHashMap<>();
+
+  // must be called before the saga is started, the future completes with the final step
+  public CompletableFuture<String> expect(String orderId) {
+    return pending.computeIfAbsent(orderId, id -> new CompletableFuture<>());
+  }
+
+  public void complete(String orderId, String finalStep) {
+    CompletableFuture<String> completion = pending.remove(orderId);
+    if (completion != null) {
+      completion.complete(finalStep);
+    }
+  }
+
+  public void fail(String orderId, Throwable cause) {
+    CompletableFuture<String> completion = pending.remove(orderId);
+    if (completion != null) {
+      completion.completeExceptionally(cause);
+    }
+  }
+
+  public void forget(String orderId) {
+    pending.remove(orderId);
+  }
+
+  public int getPending() {
+    return pending.size();
+  }
+}
@@ -0,0 +1,205 @@
+package io.github.rscai.microservices.order.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+// local stand-in for UAA and the inventory service, on one port
+@Slf4j
+public class StubServer {
+
+  private static final String HAL_JSON = "application/hal+json";
+  private static final String JSON = "application/json";
+  private static final long TOKEN_VALIDITY = TimeUnit.HOURS.toMillis(1);
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final int port;
+  private final long inventoryLatencyMillis;
+  private final double inventoryErrorRate;
+  private final RSAKey signingKey;
+  private final AtomicLong inventoryRequests = new AtomicLong();
+  private final AtomicLong inventoryErrors = new AtomicLong();
+  private HttpServer server;
+  private ExecutorService workers;
+
+  public StubServer(int port, long inventoryLatencyMillis, double inventoryErrorRate,
+      int threads) throws JOSEException {
+    this.port = port;
+    this.inventoryLatencyMillis = inventoryLatencyMillis;
+    this.inventoryErrorRate = inventoryErrorRate;
+    signingKey = new RSAKeyGenerator(2048).keyID("loadtest").generate();
+    workers = Executors.newFixedThreadPool(threads);
+  }
+
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+    server.setExecutor(workers);
+    server.createContext("/uaa/token_keys", exchange -> respond(exchange, 200, JSON,
+        new JWKSet(signingKey.toPublicJWK()).toString()));
+    server.createContext("/uaa/oauth/token", this::issueAccessToken);
+    server.createContext("/inventoryItems/search/productIdIn", this::searchInventoryItems);
+    server.createContext("/inventoryItemQuantityChanges", this::changeInventoryItemQuantity);
+    server.start();
+    log.info(String.format("Stub UAA and inventory listen on port %d", port));
+  }
+
+  public void stop() {
+    server.stop(0);
+    workers.shutdownNow();
+  }
+
+  public long getInventoryRequests() {
+    return inventoryRequests.get();
+  }
+
+  public long getInventoryErrors() {
+    return inventoryErrors.get();
+  }
+
+  // a signed JWT the resource server accepts, UAA puts the scopes in the scope claim
+  public String issueToken(String subject, String... scopes) {
+    Date now = new Date();
+    JWTClaimsSet claims = new JWTClaimsSet.Builder()
+        .subject(subject)
+        .claim("scope", Arrays.asList(scopes))
+        .issueTime(now)
+        .expirationTime(new Date(now.getTime() + TOKEN_VALIDITY))
+        .build();
+    SignedJWT jwt = new SignedJWT(
+        new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+    try {
+      jwt.sign(new RSASSASigner(signingKey));
+    } catch (JOSEException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return jwt.serialize();
+  }
+
+  private void issueAccessToken(HttpExchange exchange) throws IOException {
+    // any client and any credentials are granted
+    drain(exchange);
+    Map<String, Object> token = new LinkedHashMap<>();
+    token.put("access_token", issueToken("order_service", "inventory.read", "inventory.write"));
+    token.put("token_type", "bearer");
+    token.put("expires_in", TimeUnit.MILLISECONDS.toSeconds(TOKEN_VALIDITY));
+    token.put("scope", "inventory.read inventory.write");
+    respond(exchange, 200, JSON, objectMapper.writeValueAsString(token));
+  }
+
+  private void searchInventoryItems(HttpExchange exchange) throws IOException {
+    if (simulateInventory(exchange)) {
+      return;
+    }
+    List<Map<String, Object>> items = new ArrayList<>();
+    for (String productId : queryParameters(exchange, "productId")) {
+      Map<String, Object> item = new LinkedHashMap<>();
+      item.put("id", "item-" + productId);
+      item.put("productId", productId);
+      item.put("quantity", Integer.MAX_VALUE);
+      item.put("unitPrice", 9.99);
+      items.add(item);
+    }
+    Map<String, Object> page = new LinkedHashMap<>();
+    page.put("size", items.size());
+    page.put("totalElements", items.size());
+    page.put("totalPages", 1);
+    page.put("number", 0);
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("_embedded", Collections.singletonMap("inventoryItems", items));
+    body.put("page", page);
+    respond(exchange, 200, HAL_JSON, objectMapper.writeValueAsString(body));
+  }
+
+  private void changeInventoryItemQuantity(HttpExchange exchange) throws IOException {
+    if (simulateInventory(exchange)) {
+      return;
+    }
+    // every change is accepted, the inventory never runs out
+    List<?> changes = objectMapper.readValue(exchange.getRequestBody(), List.class);
+    respond(exchange, 200, HAL_JSON, objectMapper.writeValueAsString(changes));
+  }
+
+  // sleeps the configured latency and answers the configured share of requests with 503
+  private boolean simulateInventory(HttpExchange exchange) throws IOException {
+    inventoryRequests.incrementAndGet();
+    if (inventoryLatencyMillis > 0) {
+      try {
+        // exponentially distributed around the mean, as service times usually are
+        Thread.sleep((long) (-inventoryLatencyMillis
+            * Math.log(1 - ThreadLocalRandom.current().nextDouble())));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (ThreadLocalRandom.current().nextDouble() < inventoryErrorRate) {
+      inventoryErrors.incrementAndGet();
+      respond(exchange, 503, JSON, "{\"error\":\"simulated failure\"}");
+      return true;
+    }
+    return false;
+  }
+
+  private static List<String> queryParameters(HttpExchange exchange, String name)
+      throws UnsupportedEncodingException {
+    List<String> values = new ArrayList<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return values;
+    }
+    for (String parameter : query.split("&")) {
+      String[] pair = parameter.split("=", 2);
+      if (pair.length == 2 && name.equals(URLDecoder.decode(pair[0], "UTF-8"))) {
+        // Feign may also send a list as one comma separated value
+        values.addAll(Arrays.asList(URLDecoder.decode(pair[1], "UTF-8").split(",")));
+      }
+    }
+    return values;
+  }
+
+  private static void drain(HttpExchange exchange) throws IOException {
+    byte[] buffer = new byte[4096];
+    try (InputStream in = exchange.getRequestBody()) {
+      while (in.read(buffer) >= 0) {
+        // discard
+      }
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
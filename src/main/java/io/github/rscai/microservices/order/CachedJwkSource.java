@@ -0,0 +1,77 @@
+package io.github.rscai.microservices.order;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.io.IOException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+// keeps the JWK set in memory, token verification never waits for UAA unless a key is unknown
+@Slf4j
+public class CachedJwkSource implements JWKSource<SecurityContext> {
+
+  private final URL jwkSetUrl;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final long minRefreshInterval;
+  private volatile JWKSet jwkSet;
+  private volatile long refreshedAt;
+
+  public CachedJwkSource(URL jwkSetUrl, int connectTimeout, int readTimeout,
+      long minRefreshInterval) {
+    this.jwkSetUrl = jwkSetUrl;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    this.minRefreshInterval = minRefreshInterval;
+  }
+
+  @Override
+  public List<JWK> get(JWKSelector jwkSelector, SecurityContext context)
+      throws KeySourceException {
+    JWKSet current = jwkSet;
+    if (current == null) {
+      current = refreshUnlessRecent();
+    }
+    List<JWK> keys = jwkSelector.select(current);
+    if (keys.isEmpty()) {
+      // UAA rotated its signing key
+      keys = jwkSelector.select(refreshUnlessRecent());
+    }
+    return keys;
+  }
+
+  public void refreshInBackground() {
+    try {
+      refresh();
+    } catch (KeySourceException ex) {
+      log.warn(String.format("Can not refresh JWK set from %s, keep the cached keys: %s",
+          jwkSetUrl, ex.getMessage()));
+    }
+  }
+
+  // tokens with unknown key ids can not make every request fetch the JWK set
+  private synchronized JWKSet refreshUnlessRecent() throws KeySourceException {
+    if (jwkSet != null && System.currentTimeMillis() - refreshedAt < minRefreshInterval) {
+      return jwkSet;
+    }
+    return refresh();
+  }
+
+  private synchronized JWKSet refresh() throws KeySourceException {
+    try {
+      JWKSet loaded = JWKSet.load(jwkSetUrl, connectTimeout, readTimeout, 0);
+      jwkSet = loaded;
+      refreshedAt = System.currentTimeMillis();
+      return loaded;
+    } catch (IOException | ParseException ex) {
+      throw new KeySourceException(String.format("Can not load JWK set from %s", jwkSetUrl),
+          ex);
+    }
+  }
+}
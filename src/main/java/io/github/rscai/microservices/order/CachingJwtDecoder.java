@@ -0,0 +1,85 @@
+package io.github.rscai.microservices.order;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+// clients send the same token with many requests, its signature is verified once until it expires
+public class CachingJwtDecoder implements JwtDecoder {
+
+  private static final String CACHE_NAME = "jwt";
+  private final JwtDecoder delegate;
+  private final Duration maxTtl;
+  private final Cache<String, Jwt> cache;
+
+  public CachingJwtDecoder(JwtDecoder delegate, long maximumSize, Duration maxTtl,
+      MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.maxTtl = maxTtl;
+    cache = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfter(new Expiry<String, Jwt>() {
+          @Override
+          public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+            return ttlNanos(jwt);
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, Jwt jwt, long currentTime,
+              long currentDuration) {
+            return ttlNanos(jwt);
+          }
+
+          @Override
+          public long expireAfterRead(String key, Jwt jwt, long currentTime,
+              long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build();
+    new CaffeineCacheMetrics(cache, CACHE_NAME, Tags.empty()).bindTo(meterRegistry);
+  }
+
+  @Override
+  public Jwt decode(String token) throws JwtException {
+    // concurrent requests with the same new token share one verification, failures are not cached
+    Jwt jwt = cache.get(hash(token), key -> delegate.decode(token));
+    if (!jwt.getTokenValue().equals(token)) {
+      // a hash collision, which only costs the verification the cache would have saved
+      return delegate.decode(token);
+    }
+    return jwt;
+  }
+
+  private long ttlNanos(Jwt jwt) {
+    long ttl = maxTtl.toNanos();
+    if (jwt.getExpiresAt() != null) {
+      ttl = Math.min(ttl, Math.max(0, Duration.between(Instant.now(), jwt.getExpiresAt())
+          .toNanos()));
+    }
+    return ttl;
+  }
+
+  // the cache keeps a digest of the token as key instead of the bearer credential itself
+  private static String hash(String token) {
+    try {
+      return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+          .digest(token.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
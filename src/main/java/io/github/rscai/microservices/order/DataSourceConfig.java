@@ -0,0 +1,123 @@
+package io.github.rscai.microservices.order;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpMethod;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnProperty(name = "order.datasource.replica.enabled", havingValue = "true")
+public class DataSourceConfig implements WebMvcConfigurer {
+
+  public static final String READ_YOUR_WRITES_COOKIE = "order-read-your-writes";
+  @Value("${order.datasource.replica.urls}")
+  private String[] replicaUrls;
+  @Value("${order.datasource.replica.username:${spring.datasource.username}}")
+  private String replicaUsername;
+  @Value("${order.datasource.replica.password:${spring.datasource.password}}")
+  private String replicaPassword;
+  @Value("${order.datasource.replica.max-lag-seconds:2}")
+  private long maxLagSeconds;
+  @Value("${order.datasource.replica.lag-query:SHOW SLAVE STATUS}")
+  private String lagQuery;
+  @Value("${order.datasource.replica.lag-column:Seconds_Behind_Master}")
+  private String lagColumn;
+  @Value("${order.datasource.replica.read-your-writes-window:5000}")
+  private long readYourWritesWindow;
+
+  private ReplicaRoutingDataSource routingDataSource;
+
+  @Bean
+  @Primary
+  public DataSource dataSource(DataSourceProperties properties) {
+    DataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class)
+        .build();
+    List<DataSource> replicas = new ArrayList<>();
+    for (String url : replicaUrls) {
+      replicas.add(DataSourceBuilder.create().type(HikariDataSource.class)
+          .driverClassName(properties.determineDriverClassName()).url(url.trim())
+          .username(replicaUsername).password(replicaPassword).build());
+    }
+    routingDataSource = new ReplicaRoutingDataSource(primary, replicas, maxLagSeconds);
+    // the transaction is marked read-only after it has begun, route on the first statement
+    return new LazyConnectionDataSourceProxy(routingDataSource);
+  }
+
+  @Scheduled(fixedDelayString = "${order.datasource.replica.lag-check-interval:1000}")
+  public void checkReplicaLag() {
+    if (routingDataSource != null) {
+      routingDataSource.checkLag(lagQuery, lagColumn);
+    }
+  }
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    registry.addInterceptor(new ReadYourWritesInterceptor());
+  }
+
+  // a client reads from the primary for a while after it has sent a change
+  private class ReadYourWritesInterceptor implements AsyncHandlerInterceptor {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+        Object handler) {
+      long now = System.currentTimeMillis();
+      if (!HttpMethod.GET.matches(request.getMethod())
+          && !HttpMethod.HEAD.matches(request.getMethod())) {
+        // set before the body is written, the response is committed by then
+        Cookie cookie = new Cookie(READ_YOUR_WRITES_COOKIE,
+            Long.toString(now + readYourWritesWindow));
+        cookie.setMaxAge((int) Math.max(1, readYourWritesWindow / 1000));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        response.addCookie(cookie);
+      }
+      ReplicaRoutingDataSource.beginRequest(writtenUntil(request) > now);
+      return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+        Object handler, Exception ex) {
+      ReplicaRoutingDataSource.endRequest();
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request,
+        HttpServletResponse response, Object handler) {
+      // the container thread is released, the async dispatch begins the request again
+      ReplicaRoutingDataSource.endRequest();
+    }
+
+    private long writtenUntil(HttpServletRequest request) {
+      if (request.getCookies() != null) {
+        for (Cookie cookie : request.getCookies()) {
+          if (READ_YOUR_WRITES_COOKIE.equals(cookie.getName())) {
+            try {
+              return Long.parseLong(cookie.getValue());
+            } catch (NumberFormatException ex) {
+              return 0;
+            }
+          }
+        }
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package io.github.rscai.microservices.order;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+  @Value("${inventory.executor.core-pool-size:8}")
+  private int corePoolSize;
+  @Value("${inventory.executor.max-pool-size:32}")
+  private int maxPoolSize;
+  @Value("${inventory.executor.queue-capacity:256}")
+  private int queueCapacity;
+  @Value("${inventory.hedge.executor.core-pool-size:8}")
+  private int hedgeCorePoolSize;
+  @Value("${inventory.hedge.executor.max-pool-size:32}")
+  private int hedgeMaxPoolSize;
+  @Value("${web.async.core-pool-size:4}")
+  private int webAsyncCorePoolSize;
+  @Value("${web.async.max-pool-size:16}")
+  private int webAsyncMaxPoolSize;
+  @Value("${web.async.queue-capacity:64}")
+  private int webAsyncQueueCapacity;
+  @Value("${order.create.executor.mode:platform}")
+  private String orderCreateExecutorMode;
+  @Value("${order.create.executor.core-pool-size:16}")
+  private int orderCreateCorePoolSize;
+  @Value("${order.create.executor.max-pool-size:64}")
+  private int orderCreateMaxPoolSize;
+  @Value("${order.create.executor.queue-capacity:512}")
+  private int orderCreateQueueCapacity;
+
+  @Bean
+  public ThreadPoolTaskExecutor inventoryExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(corePoolSize);
+    executor.setMaxPoolSize(maxPoolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("inventory-");
+    // run on the caller when saturated instead of failing the lookup
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    return executor;
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor inventoryHedgeExecutor() {
+    // without a queue a saturated pool rejects at once, the search then runs unhedged
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(hedgeCorePoolSize);
+    executor.setMaxPoolSize(hedgeMaxPoolSize);
+    executor.setQueueCapacity(0);
+    executor.setThreadNamePrefix("inventory-hedge-");
+    return executor;
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor webAsyncExecutor() {
+    // runs streaming responses, long exports must not starve the servlet container threads
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(webAsyncCorePoolSize);
+    executor.setMaxPoolSize(webAsyncMaxPoolSize);
+    executor.setQueueCapacity(webAsyncQueueCapacity);
+    executor.setThreadNamePrefix("web-async-");
+    return executor;
+  }
+
+  @Bean
+  public Executor orderCreateExecutor() {
+    if ("virtual".equals(orderCreateExecutorMode)) {
+      // Executors.newVirtualThreadPerTaskExecutor only exists on Java 21 and later
+      try {
+        return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+            .invoke(null);
+      } catch (ReflectiveOperationException ex) {
+        log.warn(String.format("Virtual threads are not available on Java %s, use a thread pool",
+            System.getProperty("java.version")));
+      }
+    }
+    // a saturated pool rejects, the request is answered with 503 instead of queuing on Tomcat
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(orderCreateCorePoolSize);
+    executor.setMaxPoolSize(orderCreateMaxPoolSize);
+    executor.setQueueCapacity(orderCreateQueueCapacity);
+    executor.setThreadNamePrefix("order-create-");
+    return executor;
+  }
+}
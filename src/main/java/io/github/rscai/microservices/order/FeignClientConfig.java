@@ -2,8 +2,10 @@ package io.github.rscai.microservices.order;
 
 import feign.Retryer;
 import io.github.rscai.microservices.order.service.FeignRequestInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -30,10 +32,17 @@ public class FeignClientConfig {
   private String password;
   @Value("${feign.oauth.authorization-grant-type}")
   private String grantType = "password";
+  @Value("${feign.oauth.token.refresh-ahead-seconds:60}")
+  private long refreshAheadSeconds;
+  @Value("${feign.oauth.token.retry-interval:5000}")
+  private long retryInterval;
+  @Autowired
+  private MeterRegistry meterRegistry;
 
   @Bean
   FeignRequestInterceptor oauth2FeignRequestInterceptor() {
-    return new FeignRequestInterceptor(new DefaultOAuth2ClientContext(), resource());
+    return new FeignRequestInterceptor(new DefaultOAuth2ClientContext(), resource(), meterRegistry,
+        TimeUnit.SECONDS.toMillis(refreshAheadSeconds), retryInterval);
   }
 
   private OAuth2ProtectedResourceDetails resource() {
@@ -50,6 +59,7 @@ public class FeignClientConfig {
 
   @Bean
   public Retryer feignRetryer() {
-    return new Retryer.Default(100, TimeUnit.SECONDS.toMillis(1), 2); // this will retry once
+    // InventoryService retries each method by its own policy and within the request deadline
+    return Retryer.NEVER_RETRY;
   }
 }
@@ -0,0 +1,71 @@
+package io.github.rscai.microservices.order;
+
+import io.github.rscai.microservices.order.model.BinaryIdType;
+import io.github.rscai.microservices.order.model.TimeOrderedIdGenerator;
+import java.util.Collections;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.KeyValue;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.type.StringType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JpaConfig {
+
+  @Value("${order.id.strategy:uuid7}")
+  private String idStrategy;
+  @Value("${order.id.binary:false}")
+  private boolean binaryId;
+
+  @Bean
+  public HibernatePropertiesCustomizer idHibernatePropertiesCustomizer() {
+    return properties -> {
+      properties.put(TimeOrderedIdGenerator.STRATEGY_SETTING, idStrategy);
+      // ids are mapped as "order-id", either a hex string column or its 16 bytes
+      properties.put("hibernate.metadata_builder_contributor",
+          (MetadataBuilderContributor) metadataBuilder -> metadataBuilder.applyBasicType(
+              binaryId ? new BinaryIdType() : StringType.INSTANCE, BinaryIdType.NAME));
+      if (binaryId) {
+        properties.put("hibernate.integrator_provider",
+            (IntegratorProvider) () -> Collections.singletonList(new BinaryIdIntegrator()));
+      }
+    };
+  }
+
+  // binary id columns, including foreign keys of collection tables, are BINARY(16)
+  static class BinaryIdIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+        SessionFactoryServiceRegistry serviceRegistry) {
+      metadata.getEntityBindings().forEach(entity -> toBinaryColumn(entity.getIdentifier()));
+      metadata.getCollectionBindings()
+          .forEach(collection -> toBinaryColumn(collection.getKey()));
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory,
+        SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    private void toBinaryColumn(KeyValue value) {
+      if (value != null && value.getType() instanceof BinaryIdType) {
+        value.getColumnIterator().forEachRemaining(selectable -> {
+          if (selectable instanceof Column) {
+            // a length alone makes the dialects generate VARBINARY
+            ((Column) selectable).setLength(BinaryIdType.LENGTH);
+            ((Column) selectable).setSqlType(String.format("binary(%d)", BinaryIdType.LENGTH));
+          }
+        });
+      }
+    }
+  }
+}
@@ -6,10 +6,12 @@ import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.hateoas.config.EnableHypermediaSupport;
 import org.springframework.hateoas.config.EnableHypermediaSupport.HypermediaType;
 import org.springframework.hateoas.support.WebStack;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableHypermediaSupport(stacks = WebStack.WEBMVC, type = HypermediaType.HAL)
 @EnableFeignClients
+@EnableScheduling
 public class OrderApplication {
 
 	public static void main(String[] args) {
@@ -1,10 +1,26 @@
 package io.github.rscai.microservices.order;
 
+import io.github.rscai.microservices.order.model.OrderChange;
+import io.github.rscai.microservices.order.model.ProductPriceChange;
 import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import io.github.rscai.microservices.order.service.SagaEventPublisher;
+import io.github.rscai.microservices.order.service.SubmitOrderSagaRouter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.HeadersExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
@@ -13,11 +29,13 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.DefaultClassMapper;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
 
-@Profile("!test")
+@Profile("!test & !loadtest")
 @Configuration
 public class RabbitConfig {
 
@@ -29,10 +47,39 @@ public class RabbitConfig {
   private String queueName;
   @Value("${mq.submit-order-saga.exchange}")
   private String exchange;
+  @Value("${mq.submit-order-saga.dead-letter.queue:submit-order-saga.dead-letter}")
+  private String deadLetterQueueName;
+  @Value("${mq.submit-order-saga.listener.prefetch:50}")
+  private int prefetch;
+  @Value("${mq.submit-order-saga.listener.consumers-per-queue:1}")
+  private int consumersPerQueue;
+  @Value("${mq.submit-order-saga.batch.size:100}")
+  private int batchSize;
+  @Value("${mq.submit-order-saga.batch.receive-timeout:50}")
+  private long batchReceiveTimeout;
+  @Value("${mq.price-change.exchange:inventory.price-change}")
+  private String priceChangeExchangeName;
+  @Value("${mq.price-change.type-id:io.github.rscai.microservices.order.model.ProductPriceChange}")
+  private String priceChangeTypeId;
+  @Value("${mq.order-change.exchange:order.order-change}")
+  private String orderChangeExchangeName;
+  @Value("${mq.submit-order-saga.wire-format:json}")
+  private String sagaWireFormat;
+  @Value("${mq.submit-order-saga.retry-later.exchange:submit-order-saga.retry-later}")
+  private String retryLaterExchangeName;
+  @Value("${mq.submit-order-saga.retry-later.max-attempts:5}")
+  private int retryLaterMaxAttempts;
+  @Value("${mq.submit-order-saga.retry-later.initial-interval:1000}")
+  private long retryLaterInitialInterval;
+  @Value("${mq.submit-order-saga.retry-later.max-interval:30000}")
+  private long retryLaterMaxInterval;
 
   @Bean
   public ConnectionFactory connectionFactory() {
-    return new CachingConnectionFactory(hostname, port);
+    CachingConnectionFactory connectionFactory = new CachingConnectionFactory(hostname, port);
+    // confirms complete the CorrelationData of each message asynchronously
+    connectionFactory.setPublisherConfirmType(CachingConnectionFactory.ConfirmType.CORRELATED);
+    return connectionFactory;
   }
 
   @Bean
@@ -43,17 +90,132 @@ public class RabbitConfig {
   @Bean
   public RabbitTemplate rabbitTemplate() {
     RabbitTemplate template = new RabbitTemplate(connectionFactory());
-    template.setMessageConverter(jsonMessageConverter());
+    template.setMessageConverter(sagaMessageConverter());
     template.setExchange(exchange);
     return template;
   }
 
   @Bean
-  public Queue myQueue() {
-    return new Queue(queueName);
+  public Declarables submitOrderSagaQueues(SubmitOrderSagaRouter sagaRouter) {
+    List<Declarable> declarables = new ArrayList<>();
+    // saga events which can not be processed are parked in the dead letter queue
+    declarables.add(new Queue(deadLetterQueueName));
+    declarables.addAll(retryLaterDeclarables());
+    if (sagaRouter.getShards() == 1) {
+      // the single queue keeps its former declaration, its consumers compete for messages
+      declarables.add(new Queue(queueName));
+      return new Declarables(declarables);
+    }
+    // one queue per shard, each consumed by a single active consumer across all instances, so
+    // that the steps of one order are processed in sequence, parallelism is the shard count
+    DirectExchange sagaExchange = new DirectExchange(exchange);
+    for (int shard = 0; shard < sagaRouter.getShards(); shard++) {
+      Queue queue = QueueBuilder.durable(sagaRouter.queueNameOfShard(shard))
+          .withArgument("x-single-active-consumer", true).build();
+      declarables.add(queue);
+      declarables.add(BindingBuilder.bind(queue).to(sagaExchange)
+          .with(sagaRouter.routingKeyOfShard(shard)));
+    }
+    return new Declarables(declarables);
+  }
+
+  private List<Declarable> retryLaterDeclarables() {
+    // one queue per attempt, so that all messages of a queue share its delay and expire in
+    // order, expired messages return to the saga exchange with their routing key
+    HeadersExchange retryLaterExchange = new HeadersExchange(retryLaterExchangeName);
+    List<Declarable> declarables = new ArrayList<>();
+    declarables.add(retryLaterExchange);
+    long delay = retryLaterInitialInterval;
+    for (int attempt = 1; attempt <= retryLaterMaxAttempts; attempt++) {
+      Queue queue = QueueBuilder.durable(String.format("%s.%d", retryLaterExchangeName, attempt))
+          .ttl((int) delay).deadLetterExchange(exchange).build();
+      declarables.add(queue);
+      declarables.add(BindingBuilder.bind(queue).to(retryLaterExchange)
+          .where(SagaEventPublisher.RETRY_ATTEMPT_HEADER).matches(attempt));
+      delay = Math.min(delay * 2, retryLaterMaxInterval);
+    }
+    return declarables;
+  }
+
+  @Bean
+  public DirectRabbitListenerContainerFactory sagaListenerContainerFactory(
+      SubmitOrderSagaRouter sagaRouter) {
+    // further consumers of a single active consumer queue would only stand by
+    if (sagaRouter.getShards() > 1 && consumersPerQueue > 1) {
+      throw new IllegalStateException(String.format(
+          "mq.submit-order-saga.listener.consumers-per-queue is %d, sharded saga queues have a "
+              + "single active consumer, raise mq.submit-order-saga.shards instead",
+          consumersPerQueue));
+    }
+    DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+    factory.setConnectionFactory(connectionFactory());
+    factory.setMessageConverter(sagaMessageConverter());
+    factory.setConsumersPerQueue(consumersPerQueue);
+    factory.setPrefetchCount(prefetch);
+    return factory;
+  }
+
+  @Bean
+  public SimpleRabbitListenerContainerFactory sagaBatchListenerContainerFactory() {
+    // a single consumer drains up to batch size messages or waits up to receive timeout
+    SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+    factory.setConnectionFactory(connectionFactory());
+    factory.setMessageConverter(sagaMessageConverter());
+    factory.setBatchListener(true);
+    factory.setConsumerBatchEnabled(true);
+    factory.setBatchSize(batchSize);
+    factory.setReceiveTimeout(batchReceiveTimeout);
+    factory.setPrefetchCount(Math.max(prefetch, batchSize));
+    return factory;
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "mq.price-change.enabled", havingValue = "true")
+  public FanoutExchange priceChangeExchange() {
+    return new FanoutExchange(priceChangeExchangeName);
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "mq.price-change.enabled", havingValue = "true")
+  public AnonymousQueue priceChangeQueue() {
+    // every instance owns a queue so that all local price caches get invalidated
+    return new AnonymousQueue();
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "mq.price-change.enabled", havingValue = "true")
+  public Binding priceChangeBinding() {
+    return BindingBuilder.bind(priceChangeQueue()).to(priceChangeExchange());
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "mq.order-change.enabled", havingValue = "true")
+  public FanoutExchange orderChangeExchange() {
+    return new FanoutExchange(orderChangeExchangeName);
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "mq.order-change.enabled", havingValue = "true")
+  public AnonymousQueue orderChangeQueue() {
+    // every instance owns a queue so that all local order caches get invalidated
+    return new AnonymousQueue();
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "mq.order-change.enabled", havingValue = "true")
+  public Binding orderChangeBinding() {
+    return BindingBuilder.bind(orderChangeQueue()).to(orderChangeExchange());
+  }
+
+  @Bean
+  public SagaBinaryMessageConverter sagaMessageConverter() {
+    // saga queues read both formats, the publishers switch to binary once every consumer can
+    return new SagaBinaryMessageConverter(jsonMessageConverter(),
+        "binary".equals(sagaWireFormat));
   }
 
   @Bean
+  @Primary
   public Jackson2JsonMessageConverter jsonMessageConverter() {
     Jackson2JsonMessageConverter jsonConverter = new Jackson2JsonMessageConverter();
     jsonConverter.setClassMapper(classMapper());
@@ -65,6 +227,8 @@ public class RabbitConfig {
     DefaultClassMapper classMapper = new DefaultClassMapper();
     Map<String, Class<?>> idClassMapping = new HashMap<>();
     idClassMapping.put(SubmitOrderSaga.class.getName(), SubmitOrderSaga.class);
+    idClassMapping.put(priceChangeTypeId, ProductPriceChange.class);
+    idClassMapping.put(OrderChange.class.getName(), OrderChange.class);
     classMapper.setIdClassMapping(idClassMapping);
     return classMapper;
   }
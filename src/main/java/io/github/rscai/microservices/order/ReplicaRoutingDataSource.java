@@ -0,0 +1,126 @@
+package io.github.rscai.microservices.order;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// read-only transactions go to a replica which does not lag, everything else to the primary
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+  public static final String PRIMARY = "primary";
+  // set while a request is served, true once the request has to read its own writes
+  private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+  private final Map<String, DataSource> replicas = new LinkedHashMap<>();
+  private final List<String> replicaKeys = new ArrayList<>();
+  private final Map<String, Long> lagSeconds = new ConcurrentHashMap<>();
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  private final long maxLagSeconds;
+
+  public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicaDataSources,
+      long maxLagSeconds) {
+    this.maxLagSeconds = maxLagSeconds;
+    Map<Object, Object> targetDataSources = new HashMap<>();
+    targetDataSources.put(PRIMARY, primary);
+    for (int i = 0; i < replicaDataSources.size(); i++) {
+      String key = String.format("replica-%d", i);
+      replicas.put(key, replicaDataSources.get(i));
+      replicaKeys.add(key);
+      targetDataSources.put(key, replicaDataSources.get(i));
+    }
+    setTargetDataSources(targetDataSources);
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  public static void beginRequest(boolean pinnedToPrimary) {
+    PINNED_TO_PRIMARY.set(pinnedToPrimary);
+  }
+
+  public static void endRequest() {
+    PINNED_TO_PRIMARY.remove();
+  }
+
+  // reads within a request which must not see a lagging replica, like loads into a cache
+  public static <T> T onPrimary(Supplier<T> work) {
+    Boolean pinnedToPrimary = PINNED_TO_PRIMARY.get();
+    if (pinnedToPrimary == null || pinnedToPrimary) {
+      return work.get();
+    }
+    PINNED_TO_PRIMARY.set(true);
+    try {
+      return work.get();
+    } finally {
+      PINNED_TO_PRIMARY.set(false);
+    }
+  }
+
+  public List<String> getReplicaKeys() {
+    return replicaKeys;
+  }
+
+  // null lag means unknown, the replica is not used until a probe succeeds
+  public void setLagSeconds(String replicaKey, Long lag) {
+    if (lag == null) {
+      lagSeconds.remove(replicaKey);
+    } else {
+      lagSeconds.put(replicaKey, lag);
+    }
+  }
+
+  public void checkLag(String lagQuery, String lagColumn) {
+    replicas.forEach((key, replica) -> {
+      Long lag = null;
+      try (Connection connection = replica.getConnection();
+          Statement statement = connection.createStatement();
+          ResultSet resultSet = statement.executeQuery(lagQuery)) {
+        if (resultSet.next()) {
+          long value = resultSet.getLong(lagColumn);
+          lag = resultSet.wasNull() ? null : value;
+        }
+      } catch (SQLException ex) {
+        log.warn(String.format("Can not check lag of %s: %s", key, ex.getMessage()));
+      }
+      setLagSeconds(key, lag);
+    });
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    Boolean pinnedToPrimary = PINNED_TO_PRIMARY.get();
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      if (TransactionSynchronizationManager.isActualTransactionActive()
+          && pinnedToPrimary != null) {
+        PINNED_TO_PRIMARY.set(true);
+      }
+      return PRIMARY;
+    }
+    // only requests read from replicas, the saga and the outbox relay read what they just wrote
+    if (pinnedToPrimary == null || pinnedToPrimary) {
+      return PRIMARY;
+    }
+    int start = Math.floorMod(nextReplica.getAndIncrement(), replicaKeys.size());
+    for (int i = 0; i < replicaKeys.size(); i++) {
+      String key = replicaKeys.get((start + i) % replicaKeys.size());
+      Long lag = lagSeconds.get(key);
+      if (lag != null && lag <= maxLagSeconds) {
+        return key;
+      }
+    }
+    // every replica lags or is unreachable
+    return PRIMARY;
+  }
+}
@@ -0,0 +1,164 @@
+package io.github.rscai.microservices.order;
+
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+// compact tagged binary form of SubmitOrderSaga, any other payload and every JSON message is
+// handled by the JSON converter so that both formats can be read while the writers switch
+public class SagaBinaryMessageConverter implements MessageConverter {
+
+  public static final String CONTENT_TYPE = "application/x-submit-order-saga";
+  static final byte VERSION = 1;
+  // a field is written as tag, length and value, readers skip the tags they do not know
+  static final byte TAG_ID = 1;
+  static final byte TAG_STEP = 2;
+  static final byte TAG_ORDER_ID = 3;
+  static final byte TAG_CREATED_AT = 4;
+  static final byte TAG_UPDATED_AT = 5;
+  private final MessageConverter jsonConverter;
+  private final boolean writeBinary;
+
+  public SagaBinaryMessageConverter(MessageConverter jsonConverter, boolean writeBinary) {
+    this.jsonConverter = jsonConverter;
+    this.writeBinary = writeBinary;
+  }
+
+  @Override
+  public Message toMessage(Object object, MessageProperties messageProperties)
+      throws MessageConversionException {
+    if (!writeBinary || !(object instanceof SubmitOrderSaga)) {
+      return jsonConverter.toMessage(object, messageProperties);
+    }
+    byte[] body = encode((SubmitOrderSaga) object);
+    messageProperties.setContentType(CONTENT_TYPE);
+    messageProperties.setContentLength(body.length);
+    return new Message(body, messageProperties);
+  }
+
+  @Override
+  public Object fromMessage(Message message) throws MessageConversionException {
+    if (!CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+      return jsonConverter.fromMessage(message);
+    }
+    return decode(message.getBody());
+  }
+
+  static byte[] encode(SubmitOrderSaga saga) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+    out.write(VERSION);
+    writeString(out, TAG_ID, saga.getId());
+    writeString(out, TAG_STEP, saga.getStep());
+    writeString(out, TAG_ORDER_ID, saga.getOrderId());
+    writeDate(out, TAG_CREATED_AT, saga.getCreatedAt());
+    writeDate(out, TAG_UPDATED_AT, saga.getUpdatedAt());
+    return out.toByteArray();
+  }
+
+  static SubmitOrderSaga decode(byte[] body) {
+    ByteBuffer in = ByteBuffer.wrap(body);
+    try {
+      byte version = in.get();
+      // fields are only ever added, a new version means an incompatible layout
+      if (version != VERSION) {
+        throw new MessageConversionException(
+            String.format("Unsupported SubmitOrderSaga format version %d", version));
+      }
+      SubmitOrderSaga saga = new SubmitOrderSaga();
+      while (in.hasRemaining()) {
+        byte tag = in.get();
+        int length = readLength(in);
+        switch (tag) {
+          case TAG_ID:
+            saga.setId(readString(in, length));
+            break;
+          case TAG_STEP:
+            saga.setStep(readString(in, length));
+            break;
+          case TAG_ORDER_ID:
+            saga.setOrderId(readString(in, length));
+            break;
+          case TAG_CREATED_AT:
+            saga.setCreatedAt(readDate(in, length));
+            break;
+          case TAG_UPDATED_AT:
+            saga.setUpdatedAt(readDate(in, length));
+            break;
+          default:
+            in.position(in.position() + length);
+        }
+      }
+      return saga;
+    } catch (BufferUnderflowException ex) {
+      throw new MessageConversionException("Truncated SubmitOrderSaga message", ex);
+    }
+  }
+
+  // absent values are not written at all
+  private static void writeString(ByteArrayOutputStream out, byte tag, String value) {
+    if (value == null) {
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.write(tag);
+    writeLength(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeDate(ByteArrayOutputStream out, byte tag, Date value) {
+    if (value == null) {
+      return;
+    }
+    out.write(tag);
+    writeLength(out, Long.BYTES);
+    long time = value.getTime();
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (time >>> shift));
+    }
+  }
+
+  // unsigned varint, short fields take a single byte
+  private static void writeLength(ByteArrayOutputStream out, int length) {
+    while ((length & ~0x7F) != 0) {
+      out.write((length & 0x7F) | 0x80);
+      length >>>= 7;
+    }
+    out.write(length);
+  }
+
+  private static int readLength(ByteBuffer in) {
+    int length = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.get();
+      length |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (length < 0 || length > in.remaining()) {
+          throw new BufferUnderflowException();
+        }
+        return length;
+      }
+    }
+    throw new MessageConversionException("Malformed field length");
+  }
+
+  private static Date readDate(ByteBuffer in, int length) {
+    if (length != Long.BYTES) {
+      throw new MessageConversionException(
+          String.format("Malformed date field of %d bytes", length));
+    }
+    return new Date(in.getLong());
+  }
+
+  private static String readString(ByteBuffer in, int length) {
+    String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+}
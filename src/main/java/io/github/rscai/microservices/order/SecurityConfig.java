@@ -1,16 +1,47 @@
 package io.github.rscai.microservices.order;
 
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 
 @Profile("!test")
 @EnableWebSecurity
-@EnableGlobalMethodSecurity(securedEnabled = true, prePostEnabled = true)
+@EnableGlobalMethodSecurity(securedEnabled = true)
 public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
+  @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}")
+  private String jwkSetUri;
+  @Value("${security.jwt.jwk-set.connect-timeout:500}")
+  private int jwkSetConnectTimeout;
+  @Value("${security.jwt.jwk-set.read-timeout:500}")
+  private int jwkSetReadTimeout;
+  @Value("${security.jwt.jwk-set.min-refresh-interval:30000}")
+  private long jwkSetMinRefreshInterval;
+  @Value("${security.jwt.cache.enabled:true}")
+  private boolean jwtCacheEnabled;
+  @Value("${security.jwt.cache.maximum-size:10000}")
+  private long jwtCacheMaximumSize;
+  @Value("${security.jwt.cache.max-ttl-seconds:300}")
+  private long jwtCacheMaxTtlSeconds;
+  @Autowired
+  private MeterRegistry meterRegistry;
+
   @Override
   protected void configure(HttpSecurity http) throws Exception {
     http
@@ -21,4 +52,31 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         .oauth2ResourceServer()
         .jwt();
   }
+
+  @Bean
+  public CachedJwkSource jwkSource() throws MalformedURLException {
+    return new CachedJwkSource(new URL(jwkSetUri), jwkSetConnectTimeout, jwkSetReadTimeout,
+        jwkSetMinRefreshInterval);
+  }
+
+  @Bean
+  public JwtDecoder jwtDecoder(CachedJwkSource jwkSource) {
+    DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+    jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256,
+        jwkSource));
+    // claims are validated by the JwtValidators of NimbusJwtDecoder, as the default decoder does
+    jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+    });
+    NimbusJwtDecoder decoder = new NimbusJwtDecoder(jwtProcessor);
+    if (!jwtCacheEnabled) {
+      return decoder;
+    }
+    return new CachingJwtDecoder(decoder, jwtCacheMaximumSize,
+        Duration.ofSeconds(jwtCacheMaxTtlSeconds), meterRegistry);
+  }
+
+  @Scheduled(fixedDelayString = "${security.jwt.jwk-set.refresh-interval:300000}")
+  public void refreshJwkSet() throws MalformedURLException {
+    jwkSource().refreshInBackground();
+  }
 }
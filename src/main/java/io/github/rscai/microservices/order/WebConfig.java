@@ -0,0 +1,44 @@
+package io.github.rscai.microservices.order;
+
+import io.github.rscai.microservices.order.controller.AuthorityInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+  @Autowired
+  @Qualifier("webAsyncExecutor")
+  private AsyncTaskExecutor webAsyncExecutor;
+  @Value("${web.async.request-timeout:600000}")
+  private long requestTimeout;
+
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(webAsyncExecutor);
+    configurer.setDefaultTimeout(requestTimeout);
+  }
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    registry.addInterceptor(new AuthorityInterceptor());
+  }
+
+  @Bean
+  public FilterRegistrationBean<ShallowEtagHeaderFilter> searchEtagFilter() {
+    // search pages carry no single version, their ETag is the hash of the rendered page
+    FilterRegistrationBean<ShallowEtagHeaderFilter> registration = new FilterRegistrationBean<>(
+        new ShallowEtagHeaderFilter());
+    registration.addUrlPatterns("/orders/search/*");
+    return registration;
+  }
+}
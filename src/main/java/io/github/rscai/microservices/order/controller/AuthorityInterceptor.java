@@ -0,0 +1,49 @@
+package io.github.rscai.microservices.order.controller;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+// plain authority comparison instead of evaluating a SpEL expression on every call
+public class AuthorityInterceptor implements HandlerInterceptor {
+
+  // the required authority of each handler method is looked up once
+  private final Map<Method, Optional<String>> requiredAuthorities = new ConcurrentHashMap<>();
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+      Object handler) {
+    // the initial dispatch of an async request has been authorized already
+    if (!(handler instanceof HandlerMethod)
+        || request.getDispatcherType() == DispatcherType.ASYNC) {
+      return true;
+    }
+    Optional<String> requiredAuthority = requiredAuthorities.computeIfAbsent(
+        ((HandlerMethod) handler).getMethod(), method -> Optional
+            .ofNullable(AnnotatedElementUtils.findMergedAnnotation(method, RequiresAuthority.class))
+            .map(RequiresAuthority::value));
+    if (!requiredAuthority.isPresent()) {
+      return true;
+    }
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    if (authentication != null) {
+      for (GrantedAuthority authority : authentication.getAuthorities()) {
+        if (requiredAuthority.get().equals(authority.getAuthority())) {
+          return true;
+        }
+      }
+    }
+    throw new AccessDeniedException("Access is denied");
+  }
+}
@@ -1,39 +1,75 @@
 package io.github.rscai.microservices.order.controller;
 
-import io.github.rscai.microservices.order.model.InventoryItem;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.rscai.microservices.order.model.BatchOrderResult;
+import io.github.rscai.microservices.order.model.BatchTransitionRequest;
+import io.github.rscai.microservices.order.model.BatchTransitionResult;
 import io.github.rscai.microservices.order.model.Order;
 import io.github.rscai.microservices.order.model.Order.State;
+import io.github.rscai.microservices.order.model.Order.Transition;
 import io.github.rscai.microservices.order.model.OrderItem;
 import io.github.rscai.microservices.order.repository.OrderRepository;
-import io.github.rscai.microservices.order.service.InventoryClient;
+import io.github.rscai.microservices.order.service.Deadline;
+import io.github.rscai.microservices.order.service.DeadlineExceededException;
+import io.github.rscai.microservices.order.service.OrderCache;
+import io.github.rscai.microservices.order.service.OrderExportService;
+import io.github.rscai.microservices.order.service.OrderExportService.Format;
 import io.github.rscai.microservices.order.service.OrderService;
+import io.github.rscai.microservices.order.service.OrderService.TransitionResult;
+import io.github.rscai.microservices.order.service.ProductPriceCache;
+import java.io.OutputStream;
 import java.math.BigDecimal;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 import javax.validation.constraints.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PagedResourcesAssembler;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
 import org.springframework.hateoas.PagedModel;
+import org.springframework.hateoas.PagedModel.PageMetadata;
 import org.springframework.hateoas.server.EntityLinks;
 import org.springframework.hateoas.server.ExposesResourceFor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 
 @RestController
@@ -41,8 +77,13 @@ import org.springframework.web.server.ResponseStatusException;
 @RequestMapping("orders")
 public class OrderController {
 
-  private static final String AUTHORITY_ORDER_USE = "hasAuthority('SCOPE_order.use')";
-  private static final String AUTHORITY_ORDER_OPERATE = "hasAuthority('SCOPE_order.operate')";
+  private static final String SCOPE_ORDER_USE = "SCOPE_order.use";
+  private static final String SCOPE_ORDER_OPERATE = "SCOPE_order.operate";
+  private static final int MAX_KEYSET_PAGE_SIZE = 1000;
+  private static final int GZIP_BUFFER_SIZE = 8192;
+  private static final MediaType APPLICATION_NDJSON = MediaType
+      .parseMediaType("application/x-ndjson;charset=UTF-8");
+  private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
   private final EntityLinks entityLinks;
   @Autowired
   private OrderRepository orderRepository;
@@ -51,44 +92,263 @@ public class OrderController {
   @Autowired
   private PagedResourcesAssembler<Order> pagedResourcesAssembler;
   @Autowired
-  private InventoryClient inventoryClient;
+  private ProductPriceCache productPriceCache;
+  @Autowired
+  private OrderExportService orderExportService;
+  @Autowired
+  private OrderCache orderCache;
+  @Value("${order.batch.max-size:1000}")
+  private int maxBatchSize;
+  @Autowired
+  @Qualifier("orderCreateExecutor")
+  private Executor orderCreateExecutor;
+  @Value("${order.create.timeout:5000}")
+  private long createTimeout;
 
   public OrderController(EntityLinks entityLinks) {
     this.entityLinks = entityLinks;
   }
 
   @PostMapping
-  @ResponseStatus(HttpStatus.CREATED)
-  @PreAuthorize(AUTHORITY_ORDER_USE)
-  public EntityModel<Order> create(@RequestBody Order order) {
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public DeferredResult<ResponseEntity<EntityModel<Order>>> create(@RequestBody Order order) {
     order.setState(State.OPEN);
+    List<String> productIds = order.getItems().stream().map(OrderItem::getProductId)
+        .collect(Collectors.toList());
+    // the servlet thread is released while inventory is asked for the prices
+    DeferredResult<ResponseEntity<EntityModel<Order>>> result = new DeferredResult<>(
+        createTimeout);
+    RequestAttributes requestAttributes = RequestContextHolder.currentRequestAttributes();
+    // inventory calls give up when the client would not get the answer anyway
+    long deadline = System.currentTimeMillis() + createTimeout;
+    CompletableFuture<Map<String, BigDecimal>> unitPrices;
+    try {
+      unitPrices = CompletableFuture.supplyAsync(() -> Deadline
+          .within(deadline, () -> productPriceCache.getUnitPrices(productIds)),
+          orderCreateExecutor);
+    } catch (RejectedExecutionException ex) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+          "Too many orders are being created", ex);
+    }
+    // the timeout and the completion race for the result, only the winner acts, so a timed out
+    // order is never saved; when the order is already being saved the request expires without
+    // blocking a container thread, the late result is ignored
+    AtomicBoolean decided = new AtomicBoolean();
+    result.onTimeout(() -> {
+      if (decided.compareAndSet(false, true)) {
+        unitPrices.cancel(true);
+        result.setErrorResult(new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT,
+            String.format("Can not create Order within %d ms", createTimeout)));
+      }
+    });
+    unitPrices.whenComplete((prices, ex) -> {
+      if (!decided.compareAndSet(false, true)) {
+        return;
+      }
+      if (ex != null) {
+        result.setErrorResult(ex instanceof CompletionException && ex.getCause() != null
+            ? ex.getCause() : ex);
+        return;
+      }
+      // links are built from the current request
+      RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+      RequestContextHolder.setRequestAttributes(requestAttributes);
+      try {
+        result.setResult(
+            ResponseEntity.status(HttpStatus.CREATED).body(createPriced(order, prices)));
+      } catch (RuntimeException createEx) {
+        result.setErrorResult(createEx);
+      } finally {
+        RequestContextHolder.setRequestAttributes(previousAttributes);
+      }
+    });
+    return result;
+  }
+
+  // inventory is failing or saturated, clients should come back later instead of waiting
+  @ExceptionHandler({CallNotPermittedException.class, BulkheadFullException.class})
+  @ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "Inventory is unavailable")
+  public void inventoryUnavailable() {
+  }
+
+  @ExceptionHandler(DeadlineExceededException.class)
+  @ResponseStatus(code = HttpStatus.GATEWAY_TIMEOUT, reason = "Inventory did not answer in time")
+  public void inventoryTimedOut() {
+  }
+
+  private EntityModel<Order> createPriced(Order order, Map<String, BigDecimal> unitPrices) {
+    Optional<String> unknownProductId = price(order, unitPrices);
+    if (unknownProductId.isPresent()) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT,
+          String.format("Can not find product %s from Inventory", unknownProductId.get()));
+    }
+
+    EntityModel<Order> createdOne = new EntityModel<>(orderRepository.save(order));
+    createdOne.add(itemLinks(Objects.requireNonNull(createdOne.getContent())));
+    return createdOne;
+  }
+
+
+  @PostMapping("batch")
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public List<BatchOrderResult> createAll(@RequestBody List<Order> orders) {
+    if (orders.size() > maxBatchSize) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("Can not create more than %d orders at once", maxBatchSize));
+    }
+    // one price lookup for the distinct products of all orders
+    Map<String, BigDecimal> unitPrices = productPriceCache.getUnitPrices(orders.stream()
+        .filter(order -> order.getItems() != null).flatMap(order -> order.getItems().stream())
+        .map(OrderItem::getProductId).distinct().collect(Collectors.toList()));
+    List<BatchOrderResult> results = new ArrayList<>();
+    List<Order> pricedOrders = new ArrayList<>();
+    List<BatchOrderResult> pricedResults = new ArrayList<>();
+    for (int index = 0; index < orders.size(); index++) {
+      Order order = orders.get(index);
+      BatchOrderResult result = new BatchOrderResult();
+      result.setIndex(index);
+      results.add(result);
+      if (order.getItems() == null || order.getItems().isEmpty()) {
+        result.setStatus(HttpStatus.BAD_REQUEST.value());
+        result.setMessage("Order has no item");
+        continue;
+      }
+      order.setId(null);
+      order.setState(State.OPEN);
+      Optional<String> unknownProductId = price(order, unitPrices);
+      if (unknownProductId.isPresent()) {
+        result.setStatus(HttpStatus.CONFLICT.value());
+        result.setMessage(
+            String.format("Can not find product %s from Inventory", unknownProductId.get()));
+        continue;
+      }
+      pricedOrders.add(order);
+      pricedResults.add(result);
+    }
+    List<RuntimeException> failures = orderService.createAll(pricedOrders);
+    for (int i = 0; i < pricedOrders.size(); i++) {
+      BatchOrderResult result = pricedResults.get(i);
+      if (failures.get(i) == null) {
+        result.setStatus(HttpStatus.CREATED.value());
+        result.setId(pricedOrders.get(i).getId());
+      } else {
+        result.setStatus(HttpStatus.UNPROCESSABLE_ENTITY.value());
+        result.setMessage(failures.get(i).getMessage());
+      }
+    }
+    return results;
+  }
+
+  private void transition(String id, Transition transition, String action, String ifMatch) {
+    TransitionResult result;
+    if (ifMatch == null) {
+      result = orderService.transition(id, transition);
+    } else {
+      long version = orderRepository.findVersionById(id).orElseThrow(
+          () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+              String.format("Order %s is not found", id)));
+      if (!etagMatches(ifMatch, etag(version), false)) {
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+            String.format("Order %s has been changed", id));
+      }
+      result = orderService.transition(id, transition, version);
+    }
+    switch (result) {
+      case NOT_FOUND:
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+            String.format("Order %s is not found", id));
+      case WRONG_STATE:
+        throw new ResponseStatusException(HttpStatus.CONFLICT,
+            String.format("Can not %s Order %s", action, id));
+      case VERSION_CHANGED:
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+            String.format("Order %s has been changed", id));
+      default:
+        break;
+    }
+  }
+
+  // strong ETag of an order, its version changes with every update
+  private static String etag(long version) {
+    return String.format("\"%d\"", version);
+  }
+
+  // If-Match compares strongly, If-None-Match weakly
+  private static boolean etagMatches(String header, String etag, boolean weak) {
+    for (String tag : header.split(",")) {
+      String candidate = tag.trim();
+      if (weak && candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if ("*".equals(candidate) || etag.equals(candidate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<BatchTransitionResult> transitionAll(BatchTransitionRequest request,
+      Transition transition, String action) {
+    boolean byIds = request.getIds() != null;
+    if (byIds == (request.getUpdatedBefore() != null)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Either ids or updatedBefore is required");
+    }
+    if (byIds && request.getIds().size() > maxBatchSize) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("Can not %s more than %d orders at once", action, maxBatchSize));
+    }
+    Map<String, TransitionResult> results = byIds
+        ? orderService.transitionAll(request.getIds(), transition)
+        : orderService.transitionAllUpdatedBefore(request.getUpdatedBefore(), transition);
+    return results.entrySet().stream().map(entry -> {
+      switch (entry.getValue()) {
+        case NOT_FOUND:
+          return new BatchTransitionResult(entry.getKey(), HttpStatus.NOT_FOUND.value(),
+              String.format("Order %s is not found", entry.getKey()));
+        case WRONG_STATE:
+          return new BatchTransitionResult(entry.getKey(), HttpStatus.CONFLICT.value(),
+              String.format("Can not %s Order %s", action, entry.getKey()));
+        default:
+          return new BatchTransitionResult(entry.getKey(), HttpStatus.NO_CONTENT.value(), null);
+      }
+    }).collect(Collectors.toList());
+  }
+
+  // sets unit prices and amount, returns the first product without price
+  static Optional<String> price(Order order, Map<String, BigDecimal> unitPrices) {
     for (OrderItem item : order.getItems()) {
-      Collection<EntityModel<InventoryItem>> inventoryItems = inventoryClient
-          .searchByProductIdIn(Collections.singletonList(item.getProductId()), PageRequest.of(0, 1))
-          .getContent();
-      item.setUnitPrice(Objects.requireNonNull(inventoryItems.stream().findFirst()
-          .orElseThrow(() -> new ResponseStatusException(HttpStatus.CONFLICT,
-              String.format("Can not find product %s from Inventory", item.getProductId()))
-          ).getContent()).getUnitPrice());
+      BigDecimal unitPrice = unitPrices.get(item.getProductId());
+      if (unitPrice == null) {
+        return Optional.of(item.getProductId());
+      }
+      item.setUnitPrice(unitPrice);
     }
     BigDecimal amount = order.getItems().stream().map(orderItem ->
         orderItem.getUnitPrice().multiply(BigDecimal.valueOf(orderItem.getQuantity()))
     ).reduce(BigDecimal::add).orElse(BigDecimal.ZERO);
     order.setAmount(amount);
-    
-    EntityModel<Order> createdOne = new EntityModel<>(orderRepository.save(order));
-    createdOne.add(itemLinks(Objects.requireNonNull(createdOne.getContent())));
-    return createdOne;
+    return Optional.empty();
   }
 
   @PutMapping("{id}/submit")
   @ResponseStatus(HttpStatus.NO_CONTENT)
-  @PreAuthorize(AUTHORITY_ORDER_USE)
-  public void submit(@PathVariable("id") String id) {
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public void submit(@PathVariable("id") String id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     Order order = orderRepository.findById(id).orElseThrow(
         () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
             String.format("Order %s is not found", id)));
-    if (!orderService.submit(order)) {
+    if (ifMatch != null && !etagMatches(ifMatch, etag(order.getVersion()), false)) {
+      throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+          String.format("Order %s has been changed", id));
+    }
+    TransitionResult result = orderService.submit(order);
+    if (result == TransitionResult.VERSION_CHANGED && ifMatch != null) {
+      throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+          String.format("Order %s has been changed", id));
+    }
+    if (result != TransitionResult.TRANSITIONED) {
       throw new ResponseStatusException(HttpStatus.CONFLICT,
           String.format("Can not submit Order %s", id));
     }
@@ -96,74 +356,73 @@ public class OrderController {
 
   @PutMapping("{id}/cancel")
   @ResponseStatus(HttpStatus.NO_CONTENT)
-  @PreAuthorize(AUTHORITY_ORDER_USE)
-  public void cancel(@PathVariable("id") String id) {
-    Order order = orderRepository.findById(id).orElseThrow(
-        () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
-            String.format("Order %s is not found", id)));
-    if (!order.cancel()) {
-      throw new ResponseStatusException(HttpStatus.CONFLICT,
-          String.format("Can not cancel Order %s", id));
-    }
-    orderRepository.save(order);
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public void cancel(@PathVariable("id") String id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    transition(id, Transition.CANCEL, "cancel", ifMatch);
   }
 
   @PutMapping("{id}/startDelivery")
   @ResponseStatus(HttpStatus.NO_CONTENT)
-  @PreAuthorize(AUTHORITY_ORDER_OPERATE)
-  public void startDelivery(@PathVariable("id") String id) {
-    Order order = orderRepository.findById(id).orElseThrow(
-        () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
-            String.format("Order %s is not found", id)));
-    if (!order.startDelivery()) {
-      throw new ResponseStatusException(HttpStatus.CONFLICT,
-          String.format("Can not start delivery Order %s", id));
-    }
-    orderRepository.save(order);
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
+  public void startDelivery(@PathVariable("id") String id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    transition(id, Transition.START_DELIVERY, "start delivery", ifMatch);
+  }
+
+  @PutMapping("startDelivery")
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
+  public List<BatchTransitionResult> startDeliveryAll(
+      @RequestBody BatchTransitionRequest request) {
+    return transitionAll(request, Transition.START_DELIVERY, "start delivery");
   }
 
   @PutMapping("{id}/completeDelivery")
   @ResponseStatus(HttpStatus.NO_CONTENT)
-  @PreAuthorize(AUTHORITY_ORDER_OPERATE)
-  public void completeDelivery(@PathVariable("id") String id) {
-    Order order = orderRepository.findById(id).orElseThrow(
-        () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
-            String.format("Order %s is not found", id)));
-    if (!order.completeDelivery()) {
-      throw new ResponseStatusException(HttpStatus.CONFLICT,
-          String.format("Can not complete delivery Order %s", id));
-    }
-    orderRepository.save(order);
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
+  public void completeDelivery(@PathVariable("id") String id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    transition(id, Transition.COMPLETE_DELIVERY, "complete delivery", ifMatch);
+  }
+
+  @PutMapping("completeDelivery")
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
+  public List<BatchTransitionResult> completeDeliveryAll(
+      @RequestBody BatchTransitionRequest request) {
+    return transitionAll(request, Transition.COMPLETE_DELIVERY, "complete delivery");
   }
 
   @PutMapping("{id}/close")
   @ResponseStatus(HttpStatus.NO_CONTENT)
-  @PreAuthorize(AUTHORITY_ORDER_USE)
-  public void close(@PathVariable("id") String id) {
-    Order order = orderRepository.findById(id).orElseThrow(
-        () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
-            String.format("Order %s is not found", id)));
-    if (!order.close()) {
-      throw new ResponseStatusException(HttpStatus.CONFLICT,
-          String.format("Can not close Order %s", id));
-    }
-    orderRepository.save(order);
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public void close(@PathVariable("id") String id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    transition(id, Transition.CLOSE, "close", ifMatch);
   }
 
   @GetMapping("{id}")
-  @PreAuthorize(AUTHORITY_ORDER_USE)
-  public EntityModel<Order> getOne(@PathVariable("id") String id) {
-    Order order = orderRepository.findById(id).orElseThrow(
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public ResponseEntity<EntityModel<Order>> getOne(@PathVariable("id") String id,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    if (ifNoneMatch != null) {
+      // an unchanged order is answered from its cached version, without rendering it
+      Optional<Long> version = orderCache.findVersionById(id);
+      if (version.isPresent() && etagMatches(ifNoneMatch, etag(version.get()), true)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag(version.get())).build();
+      }
+    }
+    Order order = orderCache.findById(id).orElseThrow(
         () -> new ResponseStatusException(HttpStatus.NOT_FOUND,
             String.format("Order %s is not found", id)));
 
     EntityModel<Order> foundOne = new EntityModel<>(order);
     foundOne.add(itemLinks(order));
-    return foundOne;
+    return ResponseEntity.ok().eTag(etag(order.getVersion())).body(foundOne);
   }
 
+
   @GetMapping("search/stateIn")
-  @PreAuthorize(AUTHORITY_ORDER_USE)
+  @RequiresAuthority(SCOPE_ORDER_USE)
   public PagedModel<EntityModel<Order>> searchByStateIn(@RequestParam("state") State[] states,
       @NotNull Pageable pageable) {
     Page<Order> orders = orderRepository.findByStateIn(states, pageable);
@@ -171,7 +430,7 @@ public class OrderController {
   }
 
   @GetMapping("search/customerId")
-  @PreAuthorize(AUTHORITY_ORDER_OPERATE)
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
   public PagedModel<EntityModel<Order>> searchByCustomerId(
       @RequestParam("customerId") String customerId,
       @NotNull Pageable pageable) {
@@ -179,6 +438,130 @@ public class OrderController {
     return pagedResourcesAssembler.toModel(orders);
   }
 
+  @GetMapping(value = "search/stateIn", params = "cursor")
+  @RequiresAuthority(SCOPE_ORDER_USE)
+  public PagedModel<EntityModel<Order>> seekByStateIn(@RequestParam("state") State[] states,
+      @RequestParam("cursor") String cursor,
+      @RequestParam(value = "size", defaultValue = "20") int size,
+      @RequestParam(value = "count", defaultValue = "false") boolean count) {
+    OrderCursor position = OrderCursor.decode(cursor);
+    Pageable limit = keysetLimit(size);
+    List<Order> orders;
+    if (position == null) {
+      orders = orderRepository.findByStateInOrderByCreatedAtAscIdAsc(states, limit);
+    } else if (position.isForward()) {
+      orders = orderRepository
+          .findByStateInAfter(states, position.getCreatedAt(), position.getId(), limit);
+    } else {
+      orders = orderRepository
+          .findByStateInBefore(states, position.getCreatedAt(), position.getId(), limit);
+    }
+    return keysetPage(orders, position, limit.getPageSize() - 1,
+        count ? orderRepository.countByStateIn(states) : null);
+  }
+
+  @GetMapping(value = "search/customerId", params = "cursor")
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
+  public PagedModel<EntityModel<Order>> seekByCustomerId(
+      @RequestParam("customerId") String customerId,
+      @RequestParam("cursor") String cursor,
+      @RequestParam(value = "size", defaultValue = "20") int size,
+      @RequestParam(value = "count", defaultValue = "false") boolean count) {
+    OrderCursor position = OrderCursor.decode(cursor);
+    Pageable limit = keysetLimit(size);
+    List<Order> orders;
+    if (position == null) {
+      orders = orderRepository.findByCustomerIdOrderByCreatedAtAscIdAsc(customerId, limit);
+    } else if (position.isForward()) {
+      orders = orderRepository
+          .findByCustomerIdAfter(customerId, position.getCreatedAt(), position.getId(), limit);
+    } else {
+      orders = orderRepository
+          .findByCustomerIdBefore(customerId, position.getCreatedAt(), position.getId(), limit);
+    }
+    return keysetPage(orders, position, limit.getPageSize() - 1,
+        count ? orderRepository.countByCustomerId(customerId) : null);
+  }
+
+  @GetMapping("export")
+  @RequiresAuthority(SCOPE_ORDER_OPERATE)
+  public ResponseEntity<StreamingResponseBody> export(
+      @RequestParam(value = "state", required = false) State[] states,
+      @RequestParam(value = "customerId", required = false) String customerId,
+      @RequestParam(value = "format", defaultValue = "ndjson") String format,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+          String acceptEncoding) {
+    if ((states == null) == (customerId == null)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Export requires either state or customerId");
+    }
+    final Format exportFormat = exportFormat(format);
+    boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+    // orders are written while they are read, the response is never held in memory
+    StreamingResponseBody body = out -> {
+      GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, GZIP_BUFFER_SIZE) : null;
+      OutputStream target = gzip ? gzipOut : out;
+      if (states != null) {
+        orderExportService.exportByStates(states, exportFormat, target);
+      } else {
+        orderExportService.exportByCustomerId(customerId, exportFormat, target);
+      }
+      if (gzipOut != null) {
+        gzipOut.finish();
+      }
+    };
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+        .contentType(exportFormat == Format.CSV ? TEXT_CSV : APPLICATION_NDJSON)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+    return response.body(body);
+  }
+
+  private static Format exportFormat(String format) {
+    try {
+      return Format.valueOf(format.toUpperCase());
+    } catch (IllegalArgumentException ex) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("Unsupported export format %s", format));
+    }
+  }
+
+  private Pageable keysetLimit(int size) {
+    // one more row than the page tells whether there is a further page
+    return PageRequest.of(0, Math.max(1, Math.min(size, MAX_KEYSET_PAGE_SIZE)) + 1);
+  }
+
+  private PagedModel<EntityModel<Order>> keysetPage(List<Order> rows, OrderCursor position,
+      int size, Long totalElements) {
+    boolean backward = position != null && !position.isForward();
+    boolean hasMore = rows.size() > size;
+    List<Order> orders = new ArrayList<>(rows.subList(0, Math.min(size, rows.size())));
+    if (backward) {
+      // backward pages are read in descending order
+      Collections.reverse(orders);
+    }
+    List<Link> links = new ArrayList<>();
+    links.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest().toUriString()));
+    if (!orders.isEmpty() && (backward || hasMore)) {
+      links.add(cursorLink(OrderCursor.after(orders.get(orders.size() - 1)),
+          IanaLinkRelations.NEXT));
+    }
+    if (!orders.isEmpty() && (backward ? hasMore : position != null)) {
+      links.add(cursorLink(OrderCursor.before(orders.get(0)), IanaLinkRelations.PREV));
+    }
+    PageMetadata metadata = totalElements == null ? null
+        : new PageMetadata(size, 0, totalElements);
+    return new PagedModel<>(orders.stream().map(EntityModel::new).collect(Collectors.toList()),
+        metadata, links);
+  }
+
+  private Link cursorLink(OrderCursor cursor, LinkRelation relation) {
+    return new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+        .replaceQueryParam("cursor", cursor.encode()).toUriString(), relation);
+  }
+
   private Link[] itemLinks(final Order item) {
     return new Link[]{
         entityLinks.linkToItemResource(Order.class, item.getId())
@@ -0,0 +1,54 @@
+package io.github.rscai.microservices.order.controller;
+
+import io.github.rscai.microservices.order.model.Order;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import lombok.Data;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+// position of a keyset page: (createdAt, id) of the edge order and the paging direction
+@Data
+public class OrderCursor {
+
+  private static final String FORWARD = "n";
+  private static final String BACKWARD = "p";
+  private final boolean forward;
+  private final Date createdAt;
+  private final String id;
+
+  public static OrderCursor after(Order order) {
+    return new OrderCursor(true, order.getCreatedAt(), order.getId());
+  }
+
+  public static OrderCursor before(Order order) {
+    return new OrderCursor(false, order.getCreatedAt(), order.getId());
+  }
+
+  public String encode() {
+    String value = String.format("%s:%d:%s", forward ? FORWARD : BACKWARD,
+        createdAt.getTime(), id);
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // an empty cursor is the first page
+  public static OrderCursor decode(String cursor) {
+    if (cursor == null || cursor.isEmpty()) {
+      return null;
+    }
+    try {
+      String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+          .split(":", 3);
+      if (parts.length == 3 && (FORWARD.equals(parts[0]) || BACKWARD.equals(parts[0]))) {
+        return new OrderCursor(FORWARD.equals(parts[0]), new Date(Long.parseLong(parts[1])),
+            parts[2]);
+      }
+    } catch (IllegalArgumentException ex) {
+      // fall through to bad request
+    }
+    throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+        String.format("Invalid cursor %s", cursor));
+  }
+}
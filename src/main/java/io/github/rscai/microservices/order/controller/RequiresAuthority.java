@@ -0,0 +1,14 @@
+package io.github.rscai.microservices.order.controller;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// the authority a caller needs to invoke the handler method, checked by AuthorityInterceptor
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RequiresAuthority {
+
+  String value();
+}
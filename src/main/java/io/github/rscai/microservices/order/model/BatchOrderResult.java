@@ -0,0 +1,15 @@
+package io.github.rscai.microservices.order.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchOrderResult {
+  private int index;
+  private int status;
+  private String id;
+  private String message;
+}
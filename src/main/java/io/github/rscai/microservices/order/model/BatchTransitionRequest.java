@@ -0,0 +1,12 @@
+package io.github.rscai.microservices.order.model;
+
+import java.util.Date;
+import java.util.List;
+import lombok.Data;
+
+// either the ids of the orders, or every order in the from state last updated before a cutoff
+@Data
+public class BatchTransitionRequest {
+  private List<String> ids;
+  private Date updatedBefore;
+}
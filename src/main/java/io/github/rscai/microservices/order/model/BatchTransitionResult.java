@@ -0,0 +1,14 @@
+package io.github.rscai.microservices.order.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchTransitionResult {
+  private String id;
+  private int status;
+  private String message;
+}
@@ -0,0 +1,95 @@
+package io.github.rscai.microservices.order.model;
+
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.sql.BinaryTypeDescriptor;
+
+// stores the 32 hex characters of an id as 16 bytes, the API keeps the hex form
+public class BinaryIdType extends AbstractSingleColumnStandardBasicType<String> {
+
+  public static final String NAME = "order-id";
+  public static final int LENGTH = 16;
+
+  public BinaryIdType() {
+    super(BinaryTypeDescriptor.INSTANCE, HexIdTypeDescriptor.INSTANCE);
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  static class HexIdTypeDescriptor extends AbstractTypeDescriptor<String> {
+
+    static final HexIdTypeDescriptor INSTANCE = new HexIdTypeDescriptor();
+
+    HexIdTypeDescriptor() {
+      super(String.class);
+    }
+
+    @Override
+    public String toString(String value) {
+      return value;
+    }
+
+    @Override
+    public String fromString(String string) {
+      return string;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <X> X unwrap(String value, Class<X> type, WrapperOptions options) {
+      if (value == null) {
+        return null;
+      }
+      if (byte[].class.isAssignableFrom(type)) {
+        return (X) toBytes(value);
+      }
+      if (String.class.isAssignableFrom(type)) {
+        return (X) value;
+      }
+      throw unknownUnwrap(type);
+    }
+
+    @Override
+    public <X> String wrap(X value, WrapperOptions options) {
+      if (value == null) {
+        return null;
+      }
+      if (value instanceof byte[]) {
+        return toHex((byte[]) value);
+      }
+      if (value instanceof String) {
+        return (String) value;
+      }
+      throw unknownWrap(value.getClass());
+    }
+  }
+
+  static byte[] toBytes(String hex) {
+    if (hex.length() != LENGTH * 2) {
+      // no stored id has another length, so a malformed id simply matches nothing
+      return new byte[0];
+    }
+    byte[] bytes = new byte[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      int high = Character.digit(hex.charAt(i * 2), 16);
+      int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+      if (high < 0 || low < 0) {
+        return new byte[0];
+      }
+      bytes[i] = (byte) ((high << 4) | low);
+    }
+    return bytes;
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -1,5 +1,6 @@
 package io.github.rscai.microservices.order.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
@@ -14,23 +15,35 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.JoinColumn;
+import javax.persistence.OrderColumn;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Version;
 import lombok.Data;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Type;
 import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.hateoas.server.core.Relation;
 
 @Relation(collectionRelation = "orders")
 @Data
 @Entity
+// a transition only writes the changed columns
+@DynamicUpdate
 @Table(name = "t_order",
-    indexes = {@Index(name = "idx_state", columnList = "state", unique = false),
-        @Index(name = "idx_customer_id", columnList = "customer_id", unique = false)})
+    indexes = {
+        @Index(name = "idx_state_created_at_id", columnList = "state,created_at,id",
+            unique = false),
+        @Index(name = "idx_customer_id_created_at_id", columnList = "customer_id,created_at,id",
+            unique = false)})
 public class Order {
 
+  public static final int ITEMS_BATCH_SIZE = 100;
+
   public enum State {
     OPEN,
     SUBMITTED,
@@ -41,62 +54,85 @@ public class Order {
   }
 
   @Id
-  @GeneratedValue(generator = "system-uuid")
-  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @GeneratedValue(generator = TimeOrderedIdGenerator.NAME)
+  @GenericGenerator(name = TimeOrderedIdGenerator.NAME,
+      strategy = "io.github.rscai.microservices.order.model.TimeOrderedIdGenerator")
+  @Type(type = BinaryIdType.NAME)
   private String id;
   @Column(nullable = false, scale = 2)
   private BigDecimal amount;
   @Column(name="customer_id", nullable = false)
   private String customerId;
+  // items of a whole search page are loaded by one select instead of one select per order
   @ElementCollection(fetch = FetchType.EAGER)
   @CollectionTable(name = "order_item", joinColumns = @JoinColumn(name = "order_id"))
+  @BatchSize(size = ITEMS_BATCH_SIZE)
+  // an indexed list is diffed row by row, a bag is deleted and re-inserted on merge
+  @OrderColumn(name = "item_index")
   private List<OrderItem> items;
   @Enumerated(EnumType.STRING)
   private State state;
   @CreationTimestamp
   @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "created_at")
   private Date createdAt;
   @UpdateTimestamp
   @Temporal(TemporalType.TIMESTAMP)
   private Date updatedAt;
+  // guards full entity updates, state transitions bump it too
+  @Version
+  @JsonIgnore
+  private long version;
 
-  public boolean submit() {
-    if (state == State.OPEN) {
-      state = State.SUBMITTED;
-      return true;
+  public enum Transition {
+    SUBMIT(State.OPEN, State.SUBMITTED),
+    CANCEL(State.OPEN, State.CANCELLED),
+    START_DELIVERY(State.SUBMITTED, State.ON_DELIVERY),
+    COMPLETE_DELIVERY(State.ON_DELIVERY, State.DELIVERED),
+    CLOSE(State.DELIVERED, State.CLOSED);
+
+    private final State from;
+    private final State to;
+
+    Transition(State from, State to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    public State getFrom() {
+      return from;
+    }
+
+    public State getTo() {
+      return to;
     }
-    return false;
   }
 
-  public boolean cancel() {
-    if (state == State.OPEN) {
-      state = State.CANCELLED;
+  public boolean apply(Transition transition) {
+    if (state == transition.getFrom()) {
+      state = transition.getTo();
       return true;
     }
     return false;
   }
 
+  public boolean submit() {
+    return apply(Transition.SUBMIT);
+  }
+
+  public boolean cancel() {
+    return apply(Transition.CANCEL);
+  }
+
   public boolean startDelivery() {
-    if (state == State.SUBMITTED) {
-      state = State.ON_DELIVERY;
-      return true;
-    }
-    return false;
+    return apply(Transition.START_DELIVERY);
   }
 
   public boolean completeDelivery() {
-    if (state == State.ON_DELIVERY) {
-      state = State.DELIVERED;
-      return true;
-    }
-    return false;
+    return apply(Transition.COMPLETE_DELIVERY);
   }
 
   public boolean close() {
-    if (state == State.DELIVERED) {
-      state = State.CLOSED;
-      return true;
-    }
-    return false;
+    return apply(Transition.CLOSE);
   }
 }
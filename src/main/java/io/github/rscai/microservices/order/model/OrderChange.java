@@ -0,0 +1,12 @@
+package io.github.rscai.microservices.order.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderChange {
+  private String orderId;
+}
@@ -0,0 +1,53 @@
+package io.github.rscai.microservices.order.model;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Type;
+
+@Data
+@Entity
+@Table(name = "t_outbox_event",
+    indexes = {@Index(name = "idx_sent_at_created_at", columnList = "sent_at,created_at"),
+        @Index(name = "idx_claimed_by", columnList = "claimed_by")})
+public class OutboxEvent {
+
+  @Id
+  @GeneratedValue(generator = TimeOrderedIdGenerator.NAME)
+  @GenericGenerator(name = TimeOrderedIdGenerator.NAME,
+      strategy = "io.github.rscai.microservices.order.model.TimeOrderedIdGenerator")
+  @Type(type = BinaryIdType.NAME)
+  private String id;
+  @Column(nullable = false)
+  private String type;
+  @Column(nullable = false, length = 4000)
+  private String payload;
+  @Column(nullable = false)
+  private int shard;
+  @CreationTimestamp
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "created_at")
+  private Date createdAt;
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "sent_at")
+  private Date sentAt;
+  // a relay claims events before publishing them, the claim expires if the relay dies
+  @Column(name = "claimed_by")
+  private String claimedBy;
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "claimed_until")
+  private Date claimedUntil;
+  // events which can not be read are never published
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "failed_at")
+  private Date failedAt;
+}
@@ -0,0 +1,14 @@
+package io.github.rscai.microservices.order.model;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductPriceChange {
+  private String productId;
+  private BigDecimal unitPrice;
+}
@@ -0,0 +1,65 @@
+package io.github.rscai.microservices.order.model;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+public class TimeOrderedIdGenerator implements IdentifierGenerator, Configurable {
+
+  public static final String NAME = "time-ordered";
+  public static final String STRATEGY_SETTING = "order.id.strategy";
+  // unix millis in the high 48 bits and a sequence in the low 12 bits, as in UUIDv7 rand_a
+  private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+
+  public enum Strategy {
+    // UUIDv7: ids sort by creation time, so inserts append to the clustered index
+    UUID7,
+    // random UUIDv4, the former system-uuid behaviour
+    UUID
+  }
+
+  private Strategy strategy = Strategy.UUID7;
+
+  @Override
+  public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) {
+    Object setting = serviceRegistry.getService(ConfigurationService.class).getSettings()
+        .get(STRATEGY_SETTING);
+    if (setting != null) {
+      strategy = Strategy.valueOf(setting.toString().trim().toUpperCase());
+    }
+  }
+
+  @Override
+  public Serializable generate(SharedSessionContractImplementor session, Object object) {
+    return strategy == Strategy.UUID ? randomId() : nextId();
+  }
+
+  public static String nextId() {
+    long now = System.currentTimeMillis() << 12;
+    // the sequence carries into the next millisecond, ids of one instance never go backwards
+    long timestamp = LAST_TIMESTAMP.updateAndGet(last -> Math.max(last + 1, now));
+    long mostSigBits = ((timestamp >>> 12) << 16) | 0x7000L | (timestamp & 0xFFFL);
+    long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL)
+        | 0x8000000000000000L;
+    return toHex(mostSigBits, leastSigBits);
+  }
+
+  public static String randomId() {
+    UUID uuid = UUID.randomUUID();
+    return toHex(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  private static String toHex(long mostSigBits, long leastSigBits) {
+    return BinaryIdType.toHex(ByteBuffer.allocate(BinaryIdType.LENGTH).putLong(mostSigBits)
+        .putLong(leastSigBits).array());
+  }
+}
@@ -2,13 +2,96 @@ package io.github.rscai.microservices.order.repository;
 
 import io.github.rscai.microservices.order.model.Order;
 import io.github.rscai.microservices.order.model.Order.State;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+// queries run in read-only transactions, which may be served by a replica
 @Repository
+@Transactional(readOnly = true)
 public interface OrderRepository extends PagingAndSortingRepository<Order, String> {
   Page<Order> findByCustomerId(String customerId, Pageable pageable);
   Page<Order> findByStateIn(State[] states, Pageable pageable);
+
+  // keyset pages on (createdAt, id), served by the (state|customer_id, created_at, id) indexes
+  List<Order> findByStateInOrderByCreatedAtAscIdAsc(State[] states, Pageable pageable);
+
+  @Query("select o from Order o where o.state in :states and (o.createdAt > :createdAt"
+      + " or (o.createdAt = :createdAt and o.id > :id)) order by o.createdAt asc, o.id asc")
+  List<Order> findByStateInAfter(@Param("states") State[] states,
+      @Param("createdAt") Date createdAt, @Param("id") String id, Pageable pageable);
+
+  @Query("select o from Order o where o.state in :states and (o.createdAt < :createdAt"
+      + " or (o.createdAt = :createdAt and o.id < :id)) order by o.createdAt desc, o.id desc")
+  List<Order> findByStateInBefore(@Param("states") State[] states,
+      @Param("createdAt") Date createdAt, @Param("id") String id, Pageable pageable);
+
+  long countByStateIn(State[] states);
+
+  List<Order> findByCustomerIdOrderByCreatedAtAscIdAsc(String customerId, Pageable pageable);
+
+  @Query("select o from Order o where o.customerId = :customerId and (o.createdAt > :createdAt"
+      + " or (o.createdAt = :createdAt and o.id > :id)) order by o.createdAt asc, o.id asc")
+  List<Order> findByCustomerIdAfter(@Param("customerId") String customerId,
+      @Param("createdAt") Date createdAt, @Param("id") String id, Pageable pageable);
+
+  @Query("select o from Order o where o.customerId = :customerId and (o.createdAt < :createdAt"
+      + " or (o.createdAt = :createdAt and o.id < :id)) order by o.createdAt desc, o.id desc")
+  List<Order> findByCustomerIdBefore(@Param("customerId") String customerId,
+      @Param("createdAt") Date createdAt, @Param("id") String id, Pageable pageable);
+
+  long countByCustomerId(String customerId);
+
+  // compare-and-set, the row changes only while it is still in the expected state
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("update Order o set o.state = :to, o.version = o.version + 1, o.updatedAt = :updatedAt"
+      + " where o.id = :id and o.state = :from")
+  int transition(@Param("id") String id, @Param("from") State from, @Param("to") State to,
+      @Param("updatedAt") Date updatedAt);
+
+  // the transition of a client which has seen the given version of the order
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("update Order o set o.state = :to, o.version = o.version + 1, o.updatedAt = :updatedAt"
+      + " where o.id = :id and o.state = :from and o.version = :version")
+  int transition(@Param("id") String id, @Param("from") State from, @Param("to") State to,
+      @Param("version") long version, @Param("updatedAt") Date updatedAt);
+
+  // bumps the version of an order a client has seen, while it is still in the expected state
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("update Order o set o.version = o.version + 1, o.updatedAt = :updatedAt"
+      + " where o.id = :id and o.state = :state and o.version = :version")
+  int touch(@Param("id") String id, @Param("state") State state,
+      @Param("version") long version, @Param("updatedAt") Date updatedAt);
+
+  // answers conditional requests without loading the order and its items
+  @Query("select o.version from Order o where o.id = :id")
+  Optional<Long> findVersionById(@Param("id") String id);
+
+  @Query("select o.id, o.state from Order o where o.id in :ids")
+  List<Object[]> findStatesByIdIn(@Param("ids") Collection<String> ids);
+
+  @Query("select o.id from Order o where o.state = :state and o.updatedAt < :updatedBefore"
+      + " order by o.updatedAt asc, o.id asc")
+  List<String> findIdsByStateAndUpdatedBefore(@Param("state") State state,
+      @Param("updatedBefore") Date updatedBefore, Pageable pageable);
+
+  // set-based compare-and-set of a chunk of orders
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("update Order o set o.state = :to, o.version = o.version + 1, o.updatedAt = :updatedAt"
+      + " where o.id in :ids and o.state = :from")
+  int transitionAll(@Param("ids") Collection<String> ids, @Param("from") State from,
+      @Param("to") State to, @Param("updatedAt") Date updatedAt);
 }
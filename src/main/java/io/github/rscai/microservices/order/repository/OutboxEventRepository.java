@@ -0,0 +1,63 @@
+package io.github.rscai.microservices.order.repository;
+
+import io.github.rscai.microservices.order.model.OutboxEvent;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface OutboxEventRepository extends CrudRepository<OutboxEvent, String> {
+
+  // pending events of the worker which no relay holds an unexpired claim on
+  @Query("select e.id from OutboxEvent e where e.sentAt is null and e.failedAt is null"
+      + " and mod(e.shard, :parallelism) = :worker"
+      + " and (e.claimedUntil is null or e.claimedUntil < :now) order by e.createdAt")
+  List<String> findClaimableIds(@Param("parallelism") int parallelism,
+      @Param("worker") int worker, @Param("now") Date now, Pageable pageable);
+
+  // compare-and-set, of the relays of all instances only one claims an event
+  @Transactional
+  @Modifying
+  @Query("update OutboxEvent e set e.claimedBy = :claim, e.claimedUntil = :claimedUntil"
+      + " where e.id in :ids and e.sentAt is null"
+      + " and (e.claimedUntil is null or e.claimedUntil < :now)")
+  int claim(@Param("ids") Collection<String> ids, @Param("claim") String claim,
+      @Param("now") Date now, @Param("claimedUntil") Date claimedUntil);
+
+  List<OutboxEvent> findByClaimedByAndSentAtIsNullOrderByCreatedAt(String claimedBy);
+
+  @Transactional
+  @Modifying
+  @Query("update OutboxEvent e set e.claimedBy = null, e.claimedUntil = null"
+      + " where e.claimedBy = :claim and e.sentAt is null")
+  int release(@Param("claim") String claim);
+
+  long countBySentAtIsNull();
+
+  long countBySentAtIsNullAndFailedAtIsNull();
+
+  @Transactional
+  @Modifying
+  @Query("update OutboxEvent e set e.failedAt = :failedAt where e.id = :id")
+  int markFailed(@Param("id") String id, @Param("failedAt") Date failedAt);
+
+  @Transactional
+  @Modifying
+  @Query("update OutboxEvent e set e.sentAt = :sentAt where e.id in :ids")
+  int markSent(@Param("ids") Collection<String> ids, @Param("sentAt") Date sentAt);
+
+  @Query("select e.id from OutboxEvent e where e.sentAt < :sentBefore")
+  List<String> findSentIds(@Param("sentBefore") Date sentBefore, Pageable pageable);
+
+  @Transactional
+  @Modifying
+  @Query("delete from OutboxEvent e where e.id in :ids")
+  int deleteAllByIds(@Param("ids") Collection<String> ids);
+}
@@ -0,0 +1,9 @@
+package io.github.rscai.microservices.order.saga;
+
+// the step can not run now, its event is redelivered after a delay
+public class RetryLaterException extends SagaException {
+
+  public RetryLaterException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,33 @@
+package io.github.rscai.microservices.order.service;
+
+import java.util.function.Supplier;
+
+// the time by which the current request must be answered, inventory calls never wait beyond it
+public final class Deadline {
+
+  public static final long NONE = Long.MAX_VALUE;
+  private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+  private Deadline() {
+  }
+
+  // runs the call with the given deadline, in epoch millis, on the current thread
+  public static <T> T within(long deadline, Supplier<T> call) {
+    Long previous = CURRENT.get();
+    CURRENT.set(deadline);
+    try {
+      return call.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  public static long current() {
+    Long deadline = CURRENT.get();
+    return deadline == null ? NONE : deadline;
+  }
+}
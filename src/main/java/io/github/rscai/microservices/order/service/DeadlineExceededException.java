@@ -0,0 +1,12 @@
+package io.github.rscai.microservices.order.service;
+
+public class DeadlineExceededException extends RuntimeException {
+
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+
+  public DeadlineExceededException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
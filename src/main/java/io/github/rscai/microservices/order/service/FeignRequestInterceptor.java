@@ -1,6 +1,17 @@
 package io.github.rscai.microservices.order.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cloud.security.oauth2.client.feign.OAuth2FeignRequestInterceptor;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.oauth2.client.OAuth2ClientContext;
@@ -11,57 +22,166 @@ import org.springframework.security.oauth2.common.exceptions.InvalidGrantExcepti
 import org.springframework.web.client.HttpClientErrorException;
 
 @Slf4j
-public class FeignRequestInterceptor extends OAuth2FeignRequestInterceptor {
+public class FeignRequestInterceptor extends OAuth2FeignRequestInterceptor implements
+    DisposableBean {
 
-  private OAuth2ClientContext clientContext;
+  private final OAuth2ClientContext clientContext;
+  private final long refreshAheadMillis;
+  private final long retryIntervalMillis;
+  private final Timer refreshTimer;
+  private final Counter refreshFailures;
+  private final ScheduledExecutorService refresher;
+  // the refresh in progress, callers needing a token join it instead of asking UAA themselves
+  private final AtomicReference<CompletableFuture<OAuth2AccessToken>> refreshing =
+      new AtomicReference<>();
+  // read by every inventory call without locking, only a refresh replaces it
+  private volatile OAuth2AccessToken accessToken;
+  private ScheduledFuture<?> scheduledRefresh;
 
   public FeignRequestInterceptor(OAuth2ClientContext oAuth2ClientContext,
-      OAuth2ProtectedResourceDetails resource) {
+      OAuth2ProtectedResourceDetails resource, MeterRegistry meterRegistry,
+      long refreshAheadMillis, long retryIntervalMillis) {
     super(oAuth2ClientContext, resource);
     clientContext = oAuth2ClientContext;
+    this.refreshAheadMillis = refreshAheadMillis;
+    this.retryIntervalMillis = retryIntervalMillis;
+    refreshTimer = meterRegistry.timer("oauth.token.refresh");
+    refreshFailures = meterRegistry.counter("oauth.token.refresh.failures");
+    refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "oauth-token-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   @Override
   public OAuth2AccessToken getToken() {
-    OAuth2AccessToken accessToken = clientContext.getAccessToken();
+    OAuth2AccessToken token = accessToken;
+    // a token about to expire is still used, the background refresh replaces it in time
+    if (token != null && !token.isExpired()) {
+      return token;
+    }
+    return refresh();
+  }
 
-    if (accessToken == null || accessToken.isExpired()) {
-      try {
-        accessToken = acquireAccessToken();
-      } catch (InvalidGrantException e) {
-        log.error("Catched invalid grant exception: ", e);
+  public void cleanAccessToken() {
+    log.debug("Reset access token");
 
-        cleanAccessToken();
-        accessToken = acquireAccessToken();
-      } catch (HttpClientErrorException e) {
-        log.error("Catched oauth http exception: ", e);
-
-        if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-          log.debug("Acquiring access token...");
-          cleanAccessToken();
-          accessToken = acquireAccessToken();
-        } else {
-          throw e;
-        }
-      } catch (UserRedirectRequiredException e) {
-        clientContext.setAccessToken(null);
-        String stateKey = e.getStateKey();
-        if (stateKey != null) {
-          Object stateToPreserve = e.getStateToPreserve();
-          if (stateToPreserve == null) {
-            stateToPreserve = "NONE";
+    accessToken = null;
+    clientContext.setAccessToken(null);
+  }
+
+  @Override
+  public void destroy() {
+    refresher.shutdownNow();
+  }
+
+  private OAuth2AccessToken refresh() {
+    while (true) {
+      CompletableFuture<OAuth2AccessToken> inProgress = refreshing.get();
+      if (inProgress != null) {
+        return join(inProgress);
+      }
+      CompletableFuture<OAuth2AccessToken> refresh = new CompletableFuture<>();
+      if (refreshing.compareAndSet(null, refresh)) {
+        try {
+          // the previous refresh may have finished while this caller found the token expired
+          OAuth2AccessToken token = accessToken;
+          if (!isDue(token)) {
+            refresh.complete(token);
+            return token;
           }
-          clientContext.setPreservedState(stateKey, stateToPreserve);
+          token = refreshTimer.record(this::acquire);
+          accessToken = token;
+          refresh.complete(token);
+          scheduleRefresh(token);
+          return token;
+        } catch (RuntimeException ex) {
+          refreshFailures.increment();
+          refresh.completeExceptionally(ex);
+          throw ex;
+        } finally {
+          refreshing.set(null);
         }
-        throw e;
       }
     }
-    return accessToken;
   }
 
-  public void cleanAccessToken() {
-    log.debug("Reset access token");
+  private void refreshInBackground() {
+    try {
+      refresh();
+    } catch (RuntimeException ex) {
+      log.warn(String.format("Can not refresh access token, retry in %d ms: %s",
+          retryIntervalMillis, ex.getMessage()));
+      schedule(retryIntervalMillis);
+    }
+  }
 
-    clientContext.setAccessToken(null);
+  private void scheduleRefresh(OAuth2AccessToken token) {
+    if (token.getExpiration() == null) {
+      return;
+    }
+    long remaining = token.getExpiration().getTime() - System.currentTimeMillis();
+    // a short lived token is refreshed halfway instead of all the time
+    schedule(Math.max(remaining - refreshAheadMillis, remaining / 2));
+  }
+
+  private synchronized void schedule(long delayMillis) {
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    scheduledRefresh = refresher
+        .schedule(this::refreshInBackground, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+  }
+
+  private boolean isDue(OAuth2AccessToken token) {
+    if (token == null || token.isExpired()) {
+      return true;
+    }
+    return token.getExpiration() != null
+        && token.getExpiration().getTime() - System.currentTimeMillis() <= refreshAheadMillis;
+  }
+
+  private OAuth2AccessToken acquire() {
+    try {
+      return acquireAccessToken();
+    } catch (InvalidGrantException e) {
+      log.error("Catched invalid grant exception: ", e);
+
+      cleanAccessToken();
+      return acquireAccessToken();
+    } catch (HttpClientErrorException e) {
+      log.error("Catched oauth http exception: ", e);
+
+      if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+        log.debug("Acquiring access token...");
+        cleanAccessToken();
+        return acquireAccessToken();
+      } else {
+        throw e;
+      }
+    } catch (UserRedirectRequiredException e) {
+      clientContext.setAccessToken(null);
+      String stateKey = e.getStateKey();
+      if (stateKey != null) {
+        Object stateToPreserve = e.getStateToPreserve();
+        if (stateToPreserve == null) {
+          stateToPreserve = "NONE";
+        }
+        clientContext.setPreservedState(stateKey, stateToPreserve);
+      }
+      throw e;
+    }
+  }
+
+  private static OAuth2AccessToken join(CompletableFuture<OAuth2AccessToken> refresh) {
+    try {
+      return refresh.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
   }
 }
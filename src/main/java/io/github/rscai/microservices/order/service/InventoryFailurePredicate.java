@@ -0,0 +1,17 @@
+package io.github.rscai.microservices.order.service;
+
+import feign.FeignException;
+import java.util.function.Predicate;
+
+// only an unavailable or failing inventory opens the circuit, rejected requests do not
+public class InventoryFailurePredicate implements Predicate<Throwable> {
+
+  @Override
+  public boolean test(Throwable throwable) {
+    if (throwable instanceof FeignException) {
+      int status = ((FeignException) throwable).status();
+      return status < 0 || status >= 500;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+package io.github.rscai.microservices.order.service;
+
+import io.micrometer.core.instrument.Counter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// retries with full jitter exponential backoff, never sleeps past the deadline of the call
+public class InventoryRetryPolicy {
+
+  private final int maxAttempts;
+  private final long initialInterval;
+  private final long maxInterval;
+  private final Predicate<Throwable> retryable;
+  private final Counter retries;
+
+  public InventoryRetryPolicy(int maxAttempts, long initialInterval, long maxInterval,
+      Predicate<Throwable> retryable, Counter retries) {
+    this.maxAttempts = maxAttempts;
+    this.initialInterval = initialInterval;
+    this.maxInterval = maxInterval;
+    this.retryable = retryable;
+    this.retries = retries;
+  }
+
+  public <T> T call(Supplier<T> attempt, long deadline) {
+    for (int attempts = 1; ; attempts++) {
+      if (System.currentTimeMillis() >= deadline) {
+        throw new DeadlineExceededException(
+            String.format("Inventory call is out of time after %d attempts", attempts - 1));
+      }
+      try {
+        return attempt.get();
+      } catch (RuntimeException ex) {
+        if (attempts >= maxAttempts || !retryable.test(ex)) {
+          throw ex;
+        }
+        long backoff = backoff(attempts);
+        // a retry which can not finish in time only adds load to a struggling inventory
+        if (System.currentTimeMillis() + backoff >= deadline) {
+          throw ex;
+        }
+        sleep(backoff, ex);
+        retries.increment();
+      }
+    }
+  }
+
+  long backoff(int attempts) {
+    long ceiling = Math.min(maxInterval, initialInterval * (1L << Math.min(attempts - 1, 20)));
+    // full jitter spreads the retries of concurrent callers instead of synchronizing them
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  private static void sleep(long millis, RuntimeException failure) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw failure;
+    }
+  }
+}
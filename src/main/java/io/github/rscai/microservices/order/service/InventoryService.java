@@ -0,0 +1,287 @@
+package io.github.rscai.microservices.order.service;
+
+import feign.FeignException;
+import feign.RetryableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.decorators.Decorators;
+import io.github.rscai.microservices.order.model.InventoryItem;
+import io.github.rscai.microservices.order.model.InventoryItemQuantityChange;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncListenableTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.PagedModel;
+import org.springframework.stereotype.Service;
+import org.springframework.util.concurrent.ListenableFuture;
+
+@Service
+public class InventoryService {
+
+  public static final String CIRCUIT_BREAKER = "inventory";
+  public static final String SEARCH_BULKHEAD = "inventorySearch";
+  public static final String CHANGE_BULKHEAD = "inventoryChange";
+  @Autowired
+  private InventoryClient inventoryClient;
+  @Autowired
+  private CircuitBreakerRegistry circuitBreakerRegistry;
+  @Autowired
+  private BulkheadRegistry bulkheadRegistry;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Autowired
+  @Qualifier("inventoryExecutor")
+  private Executor inventoryExecutor;
+  @Autowired
+  @Qualifier("inventoryHedgeExecutor")
+  private AsyncListenableTaskExecutor inventoryHedgeExecutor;
+  @Value("${inventory.search.page-size:100}")
+  private int pageSize;
+  @Value("${inventory.retry.search.max-attempts:3}")
+  private int searchMaxAttempts;
+  @Value("${inventory.retry.search.initial-interval:50}")
+  private long searchInitialInterval;
+  @Value("${inventory.retry.search.max-interval:1000}")
+  private long searchMaxInterval;
+  @Value("${inventory.retry.change.max-attempts:2}")
+  private int changeMaxAttempts;
+  @Value("${inventory.retry.change.initial-interval:100}")
+  private long changeInitialInterval;
+  @Value("${inventory.retry.change.max-interval:1000}")
+  private long changeMaxInterval;
+  @Value("${inventory.hedge.enabled:false}")
+  private boolean hedgeEnabled;
+  @Value("${inventory.hedge.min-delay:50}")
+  private long hedgeMinDelay;
+
+  private CircuitBreaker circuitBreaker;
+  private Bulkhead searchBulkhead;
+  private Bulkhead changeBulkhead;
+  private InventoryRetryPolicy searchRetryPolicy;
+  private InventoryRetryPolicy changeRetryPolicy;
+  private Timer searchTimer;
+  private Counter hedges;
+
+  @PostConstruct
+  public void init() {
+    circuitBreaker = circuitBreakerRegistry.circuitBreaker(CIRCUIT_BREAKER);
+    searchBulkhead = bulkheadRegistry.bulkhead(SEARCH_BULKHEAD);
+    changeBulkhead = bulkheadRegistry.bulkhead(CHANGE_BULKHEAD);
+    // a search is read only and can be repeated whenever inventory failed to answer
+    searchRetryPolicy = new InventoryRetryPolicy(searchMaxAttempts, searchInitialInterval,
+        searchMaxInterval, InventoryService::isTransient,
+        meterRegistry.counter("inventory.retries", "method", "search"));
+    // a change is not idempotent, it is only repeated when it never reached inventory
+    changeRetryPolicy = new InventoryRetryPolicy(changeMaxAttempts, changeInitialInterval,
+        changeMaxInterval, InventoryService::isNotSent,
+        meterRegistry.counter("inventory.retries", "method", "change"));
+    searchTimer = Timer.builder("inventory.search.latency").publishPercentiles(0.95)
+        .register(meterRegistry);
+    hedges = meterRegistry.counter("inventory.hedges");
+  }
+
+  public Map<String, InventoryItem> searchByProductIds(Collection<String> productIds) {
+    // chunks are searched on other threads, which do not see the deadline of the caller
+    long deadline = Deadline.current();
+    List<String> distinctProductIds = productIds.stream().distinct()
+        .collect(Collectors.toList());
+    if (distinctProductIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    // one search per inventory page, chunks are searched in parallel
+    List<List<String>> chunks = partition(distinctProductIds, pageSize);
+    if (chunks.size() == 1) {
+      return search(chunks.get(0), deadline);
+    }
+    List<CompletableFuture<Map<String, InventoryItem>>> searches = chunks.stream()
+        .map(chunk -> CompletableFuture
+            .supplyAsync(() -> search(chunk, deadline), inventoryExecutor))
+        .collect(Collectors.toList());
+    Map<String, InventoryItem> itemIndexByProductId = new HashMap<>();
+    try {
+      for (CompletableFuture<Map<String, InventoryItem>> search : searches) {
+        itemIndexByProductId.putAll(search.join());
+      }
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+    return itemIndexByProductId;
+  }
+
+  public List<EntityModel<InventoryItemQuantityChange>> changeInventoryItemQuantity(
+      List<InventoryItemQuantityChange> changes) {
+    return changeRetryPolicy.call(() -> call(changeBulkhead,
+        () -> inventoryClient.changeInventoryItemQuantity(changes)), Deadline.current());
+  }
+
+  private Map<String, InventoryItem> search(List<String> productIds, long deadline) {
+    Supplier<PagedModel<EntityModel<InventoryItem>>> search = () -> searchRetryPolicy
+        .call(() -> call(searchBulkhead, () -> searchTimer.record(() -> inventoryClient
+            .searchByProductIdIn(productIds, PageRequest.of(0, productIds.size())))), deadline);
+    return indexByProductId(hedgeEnabled ? hedged(search, deadline) : search.get());
+  }
+
+  static Map<String, InventoryItem> indexByProductId(
+      PagedModel<EntityModel<InventoryItem>> inventoryItems) {
+    return inventoryItems.getContent().stream().map(EntityModel::getContent)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toMap(InventoryItem::getProductId, item -> item,
+            (first, second) -> first));
+  }
+
+  // a search slower than the p95 latency is sent once more, the balancer picks another instance
+  private <T> T hedged(Supplier<T> search, long deadline) {
+    CompletableFuture<T> primary = new CompletableFuture<>();
+    Future<T> primarySearch;
+    try {
+      primarySearch = submit(search, primary);
+    } catch (RejectedExecutionException ex) {
+      return search.get();
+    }
+    Future<T> hedgeSearch = null;
+    try {
+      try {
+        return await(primary, Math.min(deadline, System.currentTimeMillis() + hedgeDelay()));
+      } catch (DeadlineExceededException ex) {
+        if (System.currentTimeMillis() >= deadline) {
+          throw ex;
+        }
+      }
+      CompletableFuture<T> hedge = new CompletableFuture<>();
+      try {
+        hedgeSearch = submit(search, hedge);
+      } catch (RejectedExecutionException ex) {
+        return await(primary, deadline);
+      }
+      hedges.increment();
+      // the first answer wins, a failure only counts once both searches failed
+      CompletableFuture<T> first = new CompletableFuture<>();
+      AtomicInteger failures = new AtomicInteger();
+      BiConsumer<T, Throwable> complete = (result, ex) -> {
+        if (ex == null) {
+          first.complete(result);
+        } else if (failures.incrementAndGet() == 2) {
+          first.completeExceptionally(ex);
+        }
+      };
+      primary.whenComplete(complete);
+      hedge.whenComplete(complete);
+      return await(first, deadline);
+    } finally {
+      // a late search is interrupted, it gives back its hedge thread and bulkhead permit
+      primarySearch.cancel(true);
+      if (hedgeSearch != null) {
+        hedgeSearch.cancel(true);
+      }
+    }
+  }
+
+  private <T> Future<T> submit(Supplier<T> search, CompletableFuture<T> result) {
+    ListenableFuture<T> future = inventoryHedgeExecutor.submitListenable(search::get);
+    future.addCallback(result::complete, result::completeExceptionally);
+    return future;
+  }
+
+  private long hedgeDelay() {
+    for (ValueAtPercentile percentile : searchTimer.takeSnapshot().percentileValues()) {
+      if (percentile.percentile() == 0.95) {
+        return Math.max(hedgeMinDelay, (long) percentile.value(TimeUnit.MILLISECONDS));
+      }
+    }
+    return hedgeMinDelay;
+  }
+
+  private static <T> T await(CompletableFuture<T> future, long deadline) {
+    try {
+      return deadline == Deadline.NONE ? future.get()
+          : future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex) {
+      throw new DeadlineExceededException("Inventory did not answer in time", ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new DeadlineExceededException("Interrupted while waiting for inventory", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause() instanceof CompletionException && ex.getCause()
+          .getCause() != null ? ex.getCause().getCause() : ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new CompletionException(cause);
+    }
+  }
+
+  // 5xx gateway answers, throttling and I/O failures are worth another try
+  private static boolean isTransient(Throwable throwable) {
+    if (throwable instanceof RetryableException) {
+      return true;
+    }
+    if (throwable instanceof FeignException) {
+      int status = ((FeignException) throwable).status();
+      return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+    return false;
+  }
+
+  private static boolean isNotSent(Throwable throwable) {
+    return throwable instanceof RetryableException
+        && throwable.getCause() instanceof ConnectException;
+  }
+
+  // fails fast with CallNotPermittedException or BulkheadFullException while inventory struggles
+  private <T> T call(Bulkhead bulkhead, Supplier<T> inventoryCall) {
+    try {
+      return Decorators.ofSupplier(inventoryCall).withBulkhead(bulkhead)
+          .withCircuitBreaker(circuitBreaker).get();
+    } catch (CallNotPermittedException ex) {
+      meterRegistry.counter("inventory.rejections", "reason", "circuit-open", "bulkhead",
+          bulkhead.getName()).increment();
+      throw ex;
+    } catch (BulkheadFullException ex) {
+      meterRegistry.counter("inventory.rejections", "reason", "bulkhead-full", "bulkhead",
+          bulkhead.getName()).increment();
+      throw ex;
+    }
+  }
+
+  private static <T> List<List<T>> partition(List<T> values, int size) {
+    List<List<T>> chunks = new ArrayList<>();
+    for (int from = 0; from < values.size(); from += size) {
+      chunks.add(values.subList(from, Math.min(values.size(), from + size)));
+    }
+    return chunks;
+  }
+}
@@ -0,0 +1,162 @@
+package io.github.rscai.microservices.order.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.rscai.microservices.order.ReplicaRoutingDataSource;
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.OrderChange;
+import io.github.rscai.microservices.order.model.OrderItem;
+import io.github.rscai.microservices.order.repository.OrderRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// snapshots of orders by id, served to status polls instead of reading MySQL
+@Slf4j
+@Component
+public class OrderCache {
+
+  private static final String CACHE_NAME = "order";
+  @Autowired
+  private OrderRepository repository;
+  @Autowired
+  private RabbitTemplate rabbitTemplate;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Value("${order.cache.enabled:true}")
+  private boolean enabled;
+  @Value("${order.cache.ttl-seconds:30}")
+  private long ttlSeconds;
+  @Value("${order.cache.maximum-size:10000}")
+  private long maximumSize;
+  @Value("${mq.order-change.enabled:false}")
+  private boolean broadcast;
+  @Value("${mq.order-change.exchange:order.order-change}")
+  private String orderChangeExchange;
+
+  private Cache<String, Order> cache;
+  private Counter localInvalidationCounter;
+  private Counter remoteInvalidationCounter;
+
+  @PostConstruct
+  public void init() {
+    cache = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    new CaffeineCacheMetrics(cache, CACHE_NAME, Tags.empty()).bindTo(meterRegistry);
+    Gauge.builder("order.cache.hit.ratio", cache, c -> c.stats().hitRate())
+        .register(meterRegistry);
+    localInvalidationCounter = meterRegistry
+        .counter("order.cache.invalidations", "origin", "local");
+    remoteInvalidationCounter = meterRegistry
+        .counter("order.cache.invalidations", "origin", "remote");
+  }
+
+  public Optional<Order> findById(String id) {
+    if (!enabled) {
+      return repository.findById(id);
+    }
+    // a copy keeps callers from changing the shared snapshot
+    return snapshot(id).map(OrderCache::copy);
+  }
+
+  // answers conditional polls from the snapshot, a miss loads the order for the next request
+  public Optional<Long> findVersionById(String id) {
+    if (!enabled) {
+      return repository.findVersionById(id);
+    }
+    return snapshot(id).map(Order::getVersion);
+  }
+
+  private Optional<Order> snapshot(String id) {
+    // missing orders are not cached; a snapshot lives for the ttl, so it is loaded from the
+    // primary, a lagging replica may still return the state before an evicting transition
+    return Optional.ofNullable(cache.get(id, key -> ReplicaRoutingDataSource
+        .onPrimary(() -> repository.findById(key)).map(OrderCache::copy).orElse(null)));
+  }
+
+  // evicts the order now and again after the surrounding transaction, then tells the other nodes
+  public void invalidate(String id) {
+    invalidateAll(Collections.singletonList(id));
+  }
+
+  public void invalidateAll(Collection<String> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    cache.invalidateAll(ids);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      // a poll between the eviction and the commit would cache the old state again
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          cache.invalidateAll(ids);
+          if (status == STATUS_COMMITTED) {
+            broadcast(ids);
+          }
+        }
+      });
+    } else {
+      broadcast(ids);
+    }
+    localInvalidationCounter.increment(ids.size());
+  }
+
+  // invalidation received from another node
+  public void evict(String id) {
+    log.debug(String.format("Evict order %s", id));
+    cache.invalidate(id);
+    remoteInvalidationCounter.increment();
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private void broadcast(Collection<String> ids) {
+    if (!broadcast) {
+      return;
+    }
+    for (String id : ids) {
+      try {
+        rabbitTemplate.convertAndSend(orderChangeExchange, "", new OrderChange(id));
+      } catch (AmqpException ex) {
+        // other nodes serve the old snapshot until it expires
+        log.warn(String.format("Can not broadcast change of order %s: %s", id, ex.getMessage()));
+      }
+    }
+  }
+
+  private static Order copy(Order order) {
+    Order copy = new Order();
+    copy.setId(order.getId());
+    copy.setAmount(order.getAmount());
+    copy.setCustomerId(order.getCustomerId());
+    copy.setItems(order.getItems() == null ? null : order.getItems().stream()
+        .map(item -> new OrderItem(item.getProductId(), item.getQuantity(), item.getUnitPrice()))
+        .collect(Collectors.toList()));
+    copy.setState(order.getState());
+    copy.setCreatedAt(order.getCreatedAt());
+    copy.setUpdatedAt(order.getUpdatedAt());
+    copy.setVersion(order.getVersion());
+    return copy;
+  }
+}
@@ -0,0 +1,118 @@
+package io.github.rscai.microservices.order.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.Order.State;
+import io.github.rscai.microservices.order.repository.OrderRepository;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+@Service
+public class OrderExportService {
+
+  public enum Format {
+    NDJSON,
+    CSV
+  }
+
+  private static final String CSV_HEADER = "id,customerId,state,amount,createdAt,updatedAt,items";
+  @Autowired
+  private OrderRepository repository;
+  @Autowired
+  private ObjectMapper objectMapper;
+  @PersistenceContext
+  private EntityManager entityManager;
+  @Value("${order.export.fetch-size:100}")
+  private int fetchSize;
+
+  public void exportByStates(State[] states, Format format, OutputStream out)
+      throws IOException {
+    export(limit -> repository.findByStateInOrderByCreatedAtAscIdAsc(states, limit),
+        (last, limit) -> repository
+            .findByStateInAfter(states, last.getCreatedAt(), last.getId(), limit),
+        format, out);
+  }
+
+  public void exportByCustomerId(String customerId, Format format, OutputStream out)
+      throws IOException {
+    export(limit -> repository.findByCustomerIdOrderByCreatedAtAscIdAsc(customerId, limit),
+        (last, limit) -> repository
+            .findByCustomerIdAfter(customerId, last.getCreatedAt(), last.getId(), limit),
+        format, out);
+  }
+
+  private void export(Function<Pageable, List<Order>> first, NextChunk next, Format format,
+      OutputStream out) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    if (format == Format.CSV) {
+      writer.write(CSV_HEADER);
+      writer.write('\n');
+    }
+    // read keyset chunks of fetch size, only one chunk is referenced at a time
+    Pageable limit = PageRequest.of(0, fetchSize);
+    List<Order> chunk = first.apply(limit);
+    while (!chunk.isEmpty()) {
+      for (Order order : chunk) {
+        writer.write(
+            format == Format.CSV ? toCsv(order) : objectMapper.writeValueAsString(order));
+        writer.write('\n');
+      }
+      writer.flush();
+      Order last = chunk.get(chunk.size() - 1);
+      // the request bound persistence context would otherwise keep every exported order
+      entityManager.clear();
+      if (chunk.size() < fetchSize) {
+        break;
+      }
+      chunk = next.after(last, limit);
+    }
+    writer.flush();
+  }
+
+  private static String toCsv(Order order) {
+    String items = order.getItems() == null ? "" : order.getItems().stream()
+        .map(item -> String.format("%s:%d:%s", item.getProductId(), item.getQuantity(),
+            item.getUnitPrice()))
+        .collect(Collectors.joining(";"));
+    return String.join(",", csvValue(order.getId()), csvValue(order.getCustomerId()),
+        csvValue(order.getState()), csvValue(order.getAmount()),
+        csvValue(timestamp(order.getCreatedAt())), csvValue(timestamp(order.getUpdatedAt())),
+        csvValue(items));
+  }
+
+  private static String timestamp(Date date) {
+    return date == null ? null : DateTimeFormatter.ISO_INSTANT.format(date.toInstant());
+  }
+
+  private static String csvValue(Object value) {
+    if (value == null) {
+      return "";
+    }
+    String text = value.toString();
+    if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+      return String.format("\"%s\"", text.replace("\"", "\"\""));
+    }
+    return text;
+  }
+
+  private interface NextChunk {
+
+    List<Order> after(Order last, Pageable limit);
+  }
+}
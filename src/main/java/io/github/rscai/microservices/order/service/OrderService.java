@@ -1,33 +1,209 @@
 package io.github.rscai.microservices.order.service;
 
 import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.Order.State;
+import io.github.rscai.microservices.order.model.Order.Transition;
+import io.github.rscai.microservices.order.model.OrderItem;
 import io.github.rscai.microservices.order.repository.OrderRepository;
 import io.github.rscai.microservices.order.saga.Saga;
 import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+@Slf4j
 @Service
 public class OrderService {
 
   @Autowired
   private OrderRepository repository;
   @Autowired
-  private RabbitTemplate amqpTemplate;
-  @Value("${mq.submit-order-saga.routing-key}")
-  private String routingKey;
+  private OutboxService outboxService;
+  @Autowired
+  private OrderCache orderCache;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+  @PersistenceContext
+  private EntityManager entityManager;
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+  private int batchSize;
+  @Value("${order.transition.chunk-size:500}")
+  private int transitionChunkSize;
+
+  public enum TransitionResult {
+    TRANSITIONED,
+    NOT_FOUND,
+    WRONG_STATE,
+    VERSION_CHANGED
+  }
+
+  public TransitionResult transition(String id, Transition transition) {
+    if (repository.transition(id, transition.getFrom(), transition.getTo(), new Date()) == 1) {
+      orderCache.invalidate(id);
+      return TransitionResult.TRANSITIONED;
+    }
+    // only a refused transition pays for a second query to tell why
+    return repository.existsById(id) ? TransitionResult.WRONG_STATE : TransitionResult.NOT_FOUND;
+  }
+
+  // transitions the order only while it still has the version the client has seen
+  public TransitionResult transition(String id, Transition transition, long version) {
+    if (repository.transition(id, transition.getFrom(), transition.getTo(), version,
+        new Date()) == 1) {
+      orderCache.invalidate(id);
+      return TransitionResult.TRANSITIONED;
+    }
+    Optional<Long> currentVersion = repository.findVersionById(id);
+    if (!currentVersion.isPresent()) {
+      return TransitionResult.NOT_FOUND;
+    }
+    return currentVersion.get() == version ? TransitionResult.WRONG_STATE
+        : TransitionResult.VERSION_CHANGED;
+  }
+
+  // transitions the orders chunk by chunk, returns the result of each distinct id in given order
+  public Map<String, TransitionResult> transitionAll(List<String> ids, Transition transition) {
+    List<String> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+    Map<String, TransitionResult> results = new LinkedHashMap<>();
+    for (int from = 0; from < distinctIds.size(); from += transitionChunkSize) {
+      results.putAll(transitionChunk(
+          distinctIds.subList(from, Math.min(distinctIds.size(), from + transitionChunkSize)),
+          transition));
+    }
+    return results;
+  }
 
-  public boolean submit(final Order order) {
-    if (!order.submit()) {
-      return false;
+  // transitions every order in the from state which was last updated before the cutoff
+  public Map<String, TransitionResult> transitionAllUpdatedBefore(Date updatedBefore,
+      Transition transition) {
+    Map<String, TransitionResult> results = new LinkedHashMap<>();
+    List<String> ids;
+    do {
+      // transitioned orders leave the from state, so the next chunk starts at the first page again
+      ids = repository.findIdsByStateAndUpdatedBefore(transition.getFrom(), updatedBefore,
+          PageRequest.of(0, transitionChunkSize));
+      if (!ids.isEmpty()) {
+        results.putAll(transitionChunk(ids, transition));
+      }
+    } while (ids.size() == transitionChunkSize);
+    return results;
+  }
+
+  private Map<String, TransitionResult> transitionChunk(List<String> ids,
+      Transition transition) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    return transactionTemplate.execute(status -> {
+      Map<String, State> states = findStates(ids);
+      List<String> candidates = ids.stream()
+          .filter(id -> states.get(id) == transition.getFrom()).collect(Collectors.toList());
+      int transitioned = candidates.isEmpty() ? 0 : repository
+          .transitionAll(candidates, transition.getFrom(), transition.getTo(), new Date());
+      // a concurrent transition won some candidates, only their current state tells which
+      Map<String, State> currentStates = transitioned < candidates.size()
+          ? findStates(candidates) : Collections.emptyMap();
+      Map<String, TransitionResult> results = new LinkedHashMap<>();
+      List<String> transitionedIds = new ArrayList<>();
+      for (String id : ids) {
+        if (!states.containsKey(id)) {
+          results.put(id, TransitionResult.NOT_FOUND);
+        } else if (states.get(id) == transition.getFrom() && (transitioned == candidates.size()
+            || currentStates.get(id) == transition.getTo())) {
+          results.put(id, TransitionResult.TRANSITIONED);
+          transitionedIds.add(id);
+        } else {
+          results.put(id, TransitionResult.WRONG_STATE);
+        }
+      }
+      orderCache.invalidateAll(transitionedIds);
+      return results;
+    });
+  }
+
+  private Map<String, State> findStates(List<String> ids) {
+    Map<String, State> states = new HashMap<>();
+    for (Object[] row : repository.findStatesByIdIn(ids)) {
+      states.put((String) row[0], (State) row[1]);
+    }
+    return states;
+  }
+
+  @Transactional
+  public TransitionResult submit(final Order order) {
+    // the saga moves the order to SUBMITTED, only check here that it can be submitted
+    if (order.getState() != Order.State.OPEN) {
+      return TransitionResult.WRONG_STATE;
     }
-    // publish create SubmitOrderSaga event
+    // the version of the loaded order is bumped, so only one of concurrent submits starts a saga
+    if (repository.touch(order.getId(), State.OPEN, order.getVersion(), new Date()) != 1) {
+      return TransitionResult.VERSION_CHANGED;
+    }
+    orderCache.invalidate(order.getId());
+    // record create SubmitOrderSaga event in the same transaction, the outbox relay publishes it
     SubmitOrderSaga declareEvent = new SubmitOrderSaga();
     declareEvent.setOrderId(order.getId());
     declareEvent.setStep(Saga.CREATED);
-    amqpTemplate.convertAndSend(routingKey, declareEvent);
-    return true;
+    outboxService.enqueue(declareEvent);
+    return TransitionResult.TRANSITIONED;
+  }
+
+  // saves all orders and returns the failure of each order, null when the order is saved
+  public List<RuntimeException> createAll(final List<Order> orders) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    try {
+      transactionTemplate.execute(status -> {
+        for (int from = 0; from < orders.size(); from += batchSize) {
+          repository.saveAll(orders.subList(from, Math.min(orders.size(), from + batchSize)));
+          // send the chunk as JDBC batches and release it from the persistence context
+          entityManager.flush();
+          entityManager.clear();
+        }
+        return null;
+      });
+      return new ArrayList<>(Collections.nCopies(orders.size(), null));
+    } catch (RuntimeException ex) {
+      log.warn(String.format("Can not save %d orders at once, save them one by one: %s",
+          orders.size(), ex.getMessage()));
+    }
+    List<RuntimeException> failures = new ArrayList<>();
+    for (Order order : orders) {
+      // the order still carries the id and the item collection of the rolled back transaction
+      Order copy = detachedCopy(order);
+      try {
+        transactionTemplate.execute(status -> repository.save(copy));
+        order.setId(copy.getId());
+        failures.add(null);
+      } catch (RuntimeException ex) {
+        log.error(ex.getMessage(), ex);
+        failures.add(ex);
+      }
+    }
+    return failures;
+  }
+
+  private static Order detachedCopy(Order order) {
+    Order copy = new Order();
+    copy.setCustomerId(order.getCustomerId());
+    copy.setAmount(order.getAmount());
+    copy.setState(order.getState());
+    copy.setItems(order.getItems().stream()
+        .map(item -> new OrderItem(item.getProductId(), item.getQuantity(), item.getUnitPrice()))
+        .collect(Collectors.toList()));
+    return copy;
   }
 }
@@ -0,0 +1,208 @@
+package io.github.rscai.microservices.order.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.rscai.microservices.order.model.OutboxEvent;
+import io.github.rscai.microservices.order.repository.OutboxEventRepository;
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+public class OutboxRelay {
+
+  @Autowired
+  private OutboxEventRepository repository;
+  @Autowired
+  private SagaEventPublisher sagaEventPublisher;
+  @Autowired
+  private ObjectMapper objectMapper;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Value("${mq.outbox.relay.enabled:true}")
+  private boolean enabled;
+  @Value("${mq.outbox.batch-size:500}")
+  private int batchSize;
+  @Value("${mq.outbox.parallelism:1}")
+  private int parallelism;
+  @Value("${mq.outbox.claim-timeout:60000}")
+  private long claimTimeout;
+  @Value("${mq.outbox.retention:600000}")
+  private long retention;
+
+  private ExecutorService workers;
+  private final AtomicLong lagMillis = new AtomicLong();
+  private final AtomicLong pendingEvents = new AtomicLong();
+  private Counter publishedCounter;
+  private Counter failureCounter;
+  private Counter unreadableCounter;
+  private Timer batchTimer;
+
+  @PostConstruct
+  public void init() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+      Thread thread = new Thread(runnable,
+          String.format("outbox-relay-%d", threadNumber.incrementAndGet()));
+      thread.setDaemon(true);
+      return thread;
+    });
+    Gauge.builder("outbox.lag", lagMillis, AtomicLong::get).baseUnit("milliseconds")
+        .description("age of the oldest event found pending by the last relay run")
+        .register(meterRegistry);
+    // counted by the relay itself, a count query per scrape would scan the outbox table
+    Gauge.builder("outbox.pending", pendingEvents, AtomicLong::get)
+        .description("events found pending by the last relay run").register(meterRegistry);
+    publishedCounter = meterRegistry.counter("outbox.published");
+    failureCounter = meterRegistry.counter("outbox.publish.failures");
+    unreadableCounter = meterRegistry.counter("outbox.unreadable");
+    batchTimer = meterRegistry.timer("outbox.relay.batch");
+  }
+
+  @PreDestroy
+  public void destroy() {
+    workers.shutdown();
+  }
+
+  @Scheduled(fixedDelayString = "${mq.outbox.poll-interval:200}")
+  public void relay() {
+    if (enabled) {
+      relayPending();
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${mq.outbox.purge-interval:60000}")
+  public void purge() {
+    if (enabled) {
+      purgeSentBefore(new Date(System.currentTimeMillis() - retention));
+    }
+  }
+
+  public int relayPending() {
+    final int workerCount = Math.max(1, parallelism);
+    lagMillis.set(0);
+    AtomicLong found = new AtomicLong();
+    List<CompletableFuture<Integer>> drains = new ArrayList<>();
+    for (int worker = 0; worker < workerCount; worker++) {
+      final int partition = worker;
+      drains.add(CompletableFuture.supplyAsync(() -> drain(workerCount, partition, found),
+          workers));
+    }
+    int relayed = drains.stream().mapToInt(CompletableFuture::join).sum();
+    pendingEvents.set(found.get());
+    return relayed;
+  }
+
+  // sent events are kept for the retention period only, deleted in chunks of the batch size
+  public int purgeSentBefore(Date sentBefore) {
+    int purged = 0;
+    while (true) {
+      List<String> ids = repository.findSentIds(sentBefore, PageRequest.of(0, batchSize));
+      if (ids.isEmpty()) {
+        return purged;
+      }
+      purged += repository.deleteAllByIds(ids);
+      if (ids.size() < batchSize) {
+        return purged;
+      }
+    }
+  }
+
+  private int drain(int workerCount, int worker, AtomicLong found) {
+    int relayed = 0;
+    while (true) {
+      Date now = new Date();
+      List<String> ids = repository
+          .findClaimableIds(workerCount, worker, now, PageRequest.of(0, batchSize));
+      if (ids.isEmpty()) {
+        return relayed;
+      }
+      found.addAndGet(ids.size());
+      // every instance polls the same rows, only the events claimed by this run are published
+      String claim = UUID.randomUUID().toString();
+      repository.claim(ids, claim, now, new Date(now.getTime() + claimTimeout));
+      List<OutboxEvent> events = repository.findByClaimedByAndSentAtIsNullOrderByCreatedAt(claim);
+      if (!events.isEmpty()) {
+        long lag = System.currentTimeMillis() - events.get(0).getCreatedAt().getTime();
+        lagMillis.accumulateAndGet(lag, Math::max);
+        List<OutboxEvent> readEvents = new ArrayList<>();
+        List<SubmitOrderSaga> sagas = new ArrayList<>();
+        for (OutboxEvent event : events) {
+          try {
+            sagas.add(readPayload(event));
+            readEvents.add(event);
+          } catch (IllegalStateException ex) {
+            // an unreadable event must not hold up the events behind it
+            log.error(String.format("Can not read outbox event %s: %s", event.getId(),
+                ex.getMessage()), ex);
+            repository.markFailed(event.getId(), new Date());
+            unreadableCounter.increment();
+          }
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean published = publish(sagas);
+        sample.stop(batchTimer);
+        if (!published) {
+          // keep events pending, the next run publishes them again
+          failureCounter.increment(readEvents.size());
+          repository.release(claim);
+          return relayed;
+        }
+        if (!readEvents.isEmpty()) {
+          repository.markSent(readEvents.stream().map(OutboxEvent::getId)
+              .collect(Collectors.toList()), new Date());
+        }
+        publishedCounter.increment(readEvents.size());
+        relayed += readEvents.size();
+      }
+      if (ids.size() < batchSize) {
+        return relayed;
+      }
+    }
+  }
+
+  private boolean publish(List<SubmitOrderSaga> sagas) {
+    try {
+      // publish the whole batch, then wait for the broker to confirm all of it
+      sagaEventPublisher.publishAll(sagas).join();
+      return true;
+    } catch (CompletionException ex) {
+      log.error(ex.getCause().getMessage(), ex.getCause());
+      return false;
+    }
+  }
+
+  private SubmitOrderSaga readPayload(OutboxEvent event) {
+    if (!SubmitOrderSaga.class.getName().equals(event.getType())) {
+      throw new IllegalStateException(
+          String.format("Unsupported outbox event type %s", event.getType()));
+    }
+    try {
+      return objectMapper.readValue(event.getPayload(), SubmitOrderSaga.class);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+}
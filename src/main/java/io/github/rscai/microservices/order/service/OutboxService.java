@@ -0,0 +1,36 @@
+package io.github.rscai.microservices.order.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.rscai.microservices.order.model.OutboxEvent;
+import io.github.rscai.microservices.order.repository.OutboxEventRepository;
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Service
+public class OutboxService {
+
+  static final int SHARDS = 1024;
+  @Autowired
+  private OutboxEventRepository repository;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Transactional(propagation = Propagation.MANDATORY)
+  public OutboxEvent enqueue(SubmitOrderSaga saga) {
+    OutboxEvent event = new OutboxEvent();
+    event.setType(SubmitOrderSaga.class.getName());
+    try {
+      event.setPayload(objectMapper.writeValueAsString(saga));
+    } catch (JsonProcessingException ex) {
+      throw new IllegalArgumentException(ex.getMessage(), ex);
+    }
+    // events of one order share a shard so that one relay worker publishes them in order
+    event.setShard(
+        saga.getOrderId() == null ? 0 : Math.floorMod(saga.getOrderId().hashCode(), SHARDS));
+    return repository.save(event);
+  }
+}
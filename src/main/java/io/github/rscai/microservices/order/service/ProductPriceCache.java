@@ -0,0 +1,100 @@
+package io.github.rscai.microservices.order.service;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.rscai.microservices.order.model.InventoryItem;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+public class ProductPriceCache {
+
+  private static final String CACHE_NAME = "productPrice";
+  @Autowired
+  private InventoryService inventoryService;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Value("${inventory.price-cache.enabled:true}")
+  private boolean enabled;
+  @Value("${inventory.price-cache.ttl-seconds:300}")
+  private long ttlSeconds;
+  @Value("${inventory.price-cache.maximum-size:10000}")
+  private long maximumSize;
+
+  private AsyncLoadingCache<String, BigDecimal> cache;
+
+  @PostConstruct
+  public void init() {
+    // loads run on the requesting thread; concurrent requests of a loading product join its load
+    cache = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .executor(Runnable::run)
+        .recordStats()
+        .buildAsync(new CacheLoader<String, BigDecimal>() {
+          @Override
+          public BigDecimal load(String productId) {
+            return loadUnitPrices(Collections.singletonList(productId)).get(productId);
+          }
+
+          @Override
+          public Map<String, BigDecimal> loadAll(Iterable<? extends String> productIds) {
+            List<String> missedProductIds = new ArrayList<>();
+            productIds.forEach(missedProductIds::add);
+            return loadUnitPrices(missedProductIds);
+          }
+        });
+    new CaffeineCacheMetrics(cache.synchronous(), CACHE_NAME, Tags.empty()).bindTo(meterRegistry);
+  }
+
+  public Map<String, BigDecimal> getUnitPrices(Collection<String> productIds) {
+    if (!enabled) {
+      return loadUnitPrices(productIds);
+    }
+    try {
+      return cache.getAll(productIds).join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  public void invalidate(String productId) {
+    log.debug(String.format("Invalidate unit price of product %s", productId));
+    cache.synchronous().invalidate(productId);
+  }
+
+  public void invalidateAll() {
+    cache.synchronous().invalidateAll();
+  }
+
+  private Map<String, BigDecimal> loadUnitPrices(Collection<String> productIds) {
+    Map<String, InventoryItem> inventoryItems = inventoryService.searchByProductIds(productIds);
+    Map<String, BigDecimal> unitPrices = new HashMap<>();
+    inventoryItems.forEach((productId, inventoryItem) -> {
+      if (inventoryItem.getUnitPrice() != null) {
+        unitPrices.put(productId, inventoryItem.getUnitPrice());
+      }
+    });
+    return unitPrices;
+  }
+}
@@ -0,0 +1,26 @@
+package io.github.rscai.microservices.order.service;
+
+import io.github.rscai.microservices.order.model.ProductPriceChange;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Profile("!test")
+@Component
+@ConditionalOnProperty(name = "mq.price-change.enabled", havingValue = "true")
+public class ProductPriceChangeListener {
+
+  @Autowired
+  private ProductPriceCache productPriceCache;
+
+  @RabbitListener(queues = "#{priceChangeQueue.name}")
+  public void processPriceChangeEvent(@Payload ProductPriceChange event) {
+    log.debug(String.format("Received message %s", event.toString()));
+    productPriceCache.invalidate(event.getProductId());
+  }
+}
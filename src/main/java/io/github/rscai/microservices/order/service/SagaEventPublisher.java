@@ -0,0 +1,309 @@
+package io.github.rscai.microservices.order.service;
+
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.batch.MessageBatch;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+public class SagaEventPublisher {
+
+  public static final String RETRY_ATTEMPT_HEADER = "saga-retry-attempt";
+
+  @Autowired
+  private RabbitTemplate rabbitTemplate;
+  @Autowired
+  private SubmitOrderSagaRouter sagaRouter;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Value("${mq.publisher.confirms-enabled:true}")
+  private boolean confirmsEnabled;
+  @Value("${mq.publisher.max-in-flight:1000}")
+  private int maxInFlight;
+  @Value("${mq.publisher.confirm-timeout:5000}")
+  private long confirmTimeout;
+  @Value("${mq.publisher.max-retries:3}")
+  private int maxRetries;
+  @Value("${mq.publisher.retry-interval:1000}")
+  private long retryInterval;
+  @Value("${mq.publisher.retry-buffer-size:10000}")
+  private int retryBufferSize;
+  @Value("${mq.publisher.batch.enabled:false}")
+  private boolean batchEnabled;
+  @Value("${mq.publisher.batch.size:100}")
+  private int batchSize;
+  @Value("${mq.publisher.batch.buffer-limit:262144}")
+  private int batchBufferLimit;
+  @Value("${mq.submit-order-saga.dead-letter.queue:submit-order-saga.dead-letter}")
+  private String deadLetterQueue;
+  @Value("${mq.submit-order-saga.retry-later.exchange:submit-order-saga.retry-later}")
+  private String retryLaterExchange;
+  @Value("${mq.submit-order-saga.retry-later.max-attempts:5}")
+  private int retryLaterMaxAttempts;
+
+  private Semaphore inFlight;
+  private BlockingQueue<Publish> retryBuffer;
+  private ScheduledThreadPoolExecutor scheduler;
+  private Timer confirmTimer;
+  private Counter nackCounter;
+  private Counter timeoutCounter;
+  private Counter retryCounter;
+  private Counter deadLetterCounter;
+  private Counter retryLaterCounter;
+
+  @PostConstruct
+  public void init() {
+    inFlight = new Semaphore(maxInFlight);
+    retryBuffer = new LinkedBlockingQueue<>(retryBufferSize);
+    // one thread expires confirms while the other may wait for the window to resend nacks
+    AtomicInteger threadNumber = new AtomicInteger();
+    scheduler = new ScheduledThreadPoolExecutor(2, runnable -> {
+      Thread thread = new Thread(runnable,
+          String.format("saga-publisher-%d", threadNumber.incrementAndGet()));
+      thread.setDaemon(true);
+      return thread;
+    });
+    // confirmed messages cancel their timeout, do not keep the cancelled tasks queued
+    scheduler.setRemoveOnCancelPolicy(true);
+    scheduler.scheduleWithFixedDelay(this::retryBuffered, retryInterval, retryInterval,
+        TimeUnit.MILLISECONDS);
+    confirmTimer = meterRegistry.timer("saga.publish.confirm.latency");
+    nackCounter = meterRegistry.counter("saga.publish.nacks");
+    timeoutCounter = meterRegistry.counter("saga.publish.confirm.timeouts");
+    retryCounter = meterRegistry.counter("saga.publish.retries");
+    deadLetterCounter = meterRegistry.counter("saga.dead-letters");
+    retryLaterCounter = meterRegistry.counter("saga.retry-later");
+    Gauge.builder("saga.publish.in-flight", this, SagaEventPublisher::getInFlight)
+        .register(meterRegistry);
+    Gauge.builder("saga.publish.retry-buffer", retryBuffer, Collection::size)
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void destroy() {
+    scheduler.shutdown();
+  }
+
+  public int getInFlight() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+
+  public CompletableFuture<Void> publish(SubmitOrderSaga saga) {
+    return publishAll(Collections.singletonList(saga));
+  }
+
+  // the returned future completes once the broker confirmed every saga, or fails after retries
+  public CompletableFuture<Void> publishAll(List<SubmitOrderSaga> sagas) {
+    if (sagas.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (!confirmsEnabled && !batchEnabled) {
+      try {
+        for (SubmitOrderSaga saga : sagas) {
+          rabbitTemplate.convertAndSend(sagaRouter.routingKey(saga.getOrderId()), saga);
+        }
+        return CompletableFuture.completedFuture(null);
+      } catch (AmqpException ex) {
+        return failed(ex);
+      }
+    }
+    Map<String, List<Message>> messagesByRoutingKey = new LinkedHashMap<>();
+    for (SubmitOrderSaga saga : sagas) {
+      messagesByRoutingKey
+          .computeIfAbsent(sagaRouter.routingKey(saga.getOrderId()), key -> new ArrayList<>())
+          .add(rabbitTemplate.getMessageConverter().toMessage(saga, new MessageProperties()));
+    }
+    List<CompletableFuture<Void>> publishes = new ArrayList<>();
+    messagesByRoutingKey.forEach((routingKey, messages) -> {
+      for (Message message : batchEnabled ? batch(routingKey, messages) : messages) {
+        Publish publish = new Publish(rabbitTemplate.getExchange(), routingKey, message);
+        send(publish);
+        publishes.add(publish.result);
+      }
+    });
+    return CompletableFuture.allOf(publishes.toArray(new CompletableFuture[0]));
+  }
+
+  // parks a saga event which failed again, through the default exchange to the dead letter queue
+  public void deadLetter(SubmitOrderSaga saga) {
+    log.error(String.format("Saga of order %s failed at step %s, send it to %s",
+        saga.getOrderId(), saga.getStep(), deadLetterQueue));
+    rabbitTemplate.convertAndSend("", deadLetterQueue, saga);
+    deadLetterCounter.increment();
+  }
+
+  // the retry later exchange routes the saga event by its attempt header to the queue of that
+  // delay, which dead-letters it back to the saga exchange with its routing key once expired,
+  // attempts beyond the last delay wait as long as the last one
+  public CompletableFuture<Void> retryLater(SubmitOrderSaga saga, int attempt) {
+    int delayAttempt = Math.max(1, Math.min(attempt, retryLaterMaxAttempts));
+    String routingKey = sagaRouter.routingKey(saga.getOrderId());
+    retryLaterCounter.increment();
+    if (!confirmsEnabled) {
+      try {
+        rabbitTemplate.convertAndSend(retryLaterExchange, routingKey, saga, message -> {
+          message.getMessageProperties().setHeader(RETRY_ATTEMPT_HEADER, delayAttempt);
+          return message;
+        });
+        return CompletableFuture.completedFuture(null);
+      } catch (AmqpException ex) {
+        return failed(ex);
+      }
+    }
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setHeader(RETRY_ATTEMPT_HEADER, delayAttempt);
+    Publish publish = new Publish(retryLaterExchange, routingKey,
+        rabbitTemplate.getMessageConverter().toMessage(saga, messageProperties));
+    send(publish);
+    return publish.result;
+  }
+
+  private List<Message> batch(String routingKey, List<Message> messages) {
+    // saga events of one routing key travel as one message, listener containers de-batch them
+    SimpleBatchingStrategy batchingStrategy = new SimpleBatchingStrategy(batchSize,
+        batchBufferLimit, Long.MAX_VALUE);
+    List<Message> batches = new ArrayList<>();
+    for (Message message : messages) {
+      MessageBatch batch = batchingStrategy.addToBatch(rabbitTemplate.getExchange(), routingKey,
+          message);
+      if (batch != null) {
+        batches.add(batch.getMessage());
+      }
+    }
+    batchingStrategy.releaseBatches().forEach(batch -> batches.add(batch.getMessage()));
+    return batches;
+  }
+
+  private void send(Publish publish) {
+    if (!confirmsEnabled) {
+      try {
+        rabbitTemplate.send(publish.exchange, publish.routingKey, publish.message);
+        publish.result.complete(null);
+      } catch (AmqpException ex) {
+        publish.result.completeExceptionally(ex);
+      }
+      return;
+    }
+    try {
+      // bound the number of unconfirmed messages, publishers wait for the window to open
+      if (!inFlight.tryAcquire(confirmTimeout, TimeUnit.MILLISECONDS)) {
+        publish.result.completeExceptionally(new AmqpException(
+            String.format("Timed out waiting for %d in flight messages to be confirmed",
+                maxInFlight)));
+        return;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      publish.result.completeExceptionally(new AmqpException(ex));
+      return;
+    }
+    publish.attempts++;
+    CorrelationData correlationData = new CorrelationData();
+    AtomicBoolean settled = new AtomicBoolean();
+    long startNanos = System.nanoTime();
+    ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+      if (settled.compareAndSet(false, true)) {
+        inFlight.release();
+        timeoutCounter.increment();
+        retry(publish, String.format("Message to %s is not confirmed in %d ms",
+            publish.routingKey, confirmTimeout));
+      }
+    }, confirmTimeout, TimeUnit.MILLISECONDS);
+    correlationData.getFuture().addCallback(confirm -> {
+      if (settled.compareAndSet(false, true)) {
+        timeout.cancel(false);
+        inFlight.release();
+        confirmTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (confirm != null && confirm.isAck()) {
+          publish.result.complete(null);
+        } else {
+          nackCounter.increment();
+          retry(publish, String.format("Message to %s is nacked: %s", publish.routingKey,
+              confirm == null ? null : confirm.getReason()));
+        }
+      }
+    }, ex -> {
+      if (settled.compareAndSet(false, true)) {
+        timeout.cancel(false);
+        inFlight.release();
+        retry(publish, ex.getMessage());
+      }
+    });
+    try {
+      rabbitTemplate.send(publish.exchange, publish.routingKey, publish.message, correlationData);
+    } catch (AmqpException ex) {
+      if (settled.compareAndSet(false, true)) {
+        timeout.cancel(false);
+        inFlight.release();
+        retry(publish, ex.getMessage());
+      }
+    }
+  }
+
+  private void retry(Publish publish, String reason) {
+    log.warn(reason);
+    if (publish.attempts > maxRetries || !retryBuffer.offer(publish)) {
+      publish.result.completeExceptionally(new AmqpException(reason));
+    }
+  }
+
+  private void retryBuffered() {
+    List<Publish> publishes = new ArrayList<>();
+    retryBuffer.drainTo(publishes);
+    for (Publish publish : publishes) {
+      retryCounter.increment();
+      send(publish);
+    }
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable ex) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    result.completeExceptionally(ex);
+    return result;
+  }
+
+  private static class Publish {
+
+    private final String exchange;
+    private final String routingKey;
+    private final Message message;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private int attempts;
+
+    private Publish(String exchange, String routingKey, Message message) {
+      this.exchange = exchange;
+      this.routingKey = routingKey;
+      this.message = message;
+    }
+  }
+}
@@ -1,28 +1,33 @@
 package io.github.rscai.microservices.order.service;
 
 import feign.FeignException;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.rscai.microservices.order.model.InventoryItem;
 import io.github.rscai.microservices.order.model.InventoryItemQuantityChange;
 import io.github.rscai.microservices.order.model.Order;
 import io.github.rscai.microservices.order.model.OrderItem;
 import io.github.rscai.microservices.order.repository.OrderRepository;
+import io.github.rscai.microservices.order.saga.RetryLaterException;
 import io.github.rscai.microservices.order.saga.Saga;
 import io.github.rscai.microservices.order.saga.SagaException;
 import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.hateoas.EntityModel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -34,25 +39,125 @@ import org.springframework.transaction.support.TransactionTemplate;
 public class SubmitOrderSagaHandler {
 
   @Autowired
-  private RabbitTemplate rabbitTemplate;
+  private SagaEventPublisher sagaEventPublisher;
   @Autowired
-  private InventoryClient inventoryClient;
+  private InventoryService inventoryService;
   @Autowired
   private OrderRepository orderRepository;
   @Autowired
+  private OrderCache orderCache;
+  @Autowired
   private PlatformTransactionManager transactionManager;
-  @Value("${mq.submit-order-saga.routing-key}")
-  private String routingKey;
+  @Value("${mq.submit-order-saga.retry-later.max-attempts:5}")
+  private int retryLaterMaxAttempts;
+
+  @RabbitListener(queues = "#{submitOrderSagaRouter.queueNames}",
+      containerFactory = "sagaListenerContainerFactory",
+      autoStartup = "#{${mq.submit-order-saga.listener.auto-startup:true}"
+          + " && !${mq.submit-order-saga.batch.enabled:false}}")
+  public void processSubmitOrderEvent(@Payload SubmitOrderSaga event,
+      @Header(name = SagaEventPublisher.RETRY_ATTEMPT_HEADER, required = false) Integer attempt)
+      throws SagaException {
+    String step = event.getStep();
+    SubmitOrderSaga saga;
+    try {
+      saga = handle(event);
+    } catch (SagaException ex) {
+      // the event is acknowledged and comes back after a delay, meanwhile the consumer goes on
+      // with the other orders of its queue
+      boolean failed = !(ex instanceof RetryLaterException);
+      if (failed) {
+        log.error(ex.getMessage(), ex);
+      }
+      event.setStep(step);
+      retryLater(event, attemptOf(attempt) + 1, failed).join();
+      return;
+    }
+    if (saga != null) {
+      // acknowledge the received event only after the broker confirmed the next step
+      sagaEventPublisher.publish(saga).join();
+    }
+  }
+
+  public void processSubmitOrderEvent(SubmitOrderSaga event) throws SagaException {
+    processSubmitOrderEvent(event, null);
+  }
+
+  @RabbitListener(queues = "#{submitOrderSagaRouter.queueNames}",
+      containerFactory = "sagaBatchListenerContainerFactory",
+      autoStartup = "#{${mq.submit-order-saga.listener.auto-startup:true}"
+          + " && ${mq.submit-order-saga.batch.enabled:false}}")
+  public void processSubmitOrderEvents(List<Message<SubmitOrderSaga>> messages)
+      throws SagaException {
+    log.debug(String.format("Received %d messages", messages.size()));
+    List<SubmitOrderSaga> events = new ArrayList<>();
+    Map<SubmitOrderSaga, Integer> attemptByEvent = new IdentityHashMap<>();
+    for (Message<SubmitOrderSaga> message : messages) {
+      events.add(message.getPayload());
+      attemptByEvent.put(message.getPayload(), attemptOf(
+          message.getHeaders().get(SagaEventPublisher.RETRY_ATTEMPT_HEADER, Integer.class)));
+    }
+    List<SubmitOrderSaga> deferredEvents = new ArrayList<>();
+    List<SubmitOrderSaga> failedEvents = new ArrayList<>();
+    processBatch(events, deferredEvents, failedEvents);
+    // only the deferred and failed events come back after a delay, the other events of the
+    // batch are done and must not run their step again
+    List<CompletableFuture<Void>> retries = new ArrayList<>();
+    for (SubmitOrderSaga event : deferredEvents) {
+      retries.add(retryLater(event, attemptByEvent.get(event) + 1, false));
+    }
+    for (SubmitOrderSaga event : failedEvents) {
+      retries.add(retryLater(event, attemptByEvent.get(event) + 1, true));
+    }
+    CompletableFuture.allOf(retries.toArray(new CompletableFuture[0])).join();
+  }
+
+  private void processBatch(List<SubmitOrderSaga> events, List<SubmitOrderSaga> deferredEvents,
+      List<SubmitOrderSaga> failedEvents) throws SagaException {
+    List<SubmitOrderSaga> nextEvents = new ArrayList<>();
+    // split before processing, the decrease inventory step changes the step of created events
+    Map<Boolean, List<SubmitOrderSaga>> eventsByCreated = events.stream().collect(Collectors
+        .partitioningBy(event -> SubmitOrderSaga.CREATED.equals(event.getStep())));
+    List<SubmitOrderSaga> createdEvents = eventsByCreated.get(true);
+    if (!createdEvents.isEmpty()) {
+      nextEvents.addAll(decreaseInventory(createdEvents, failedEvents, deferredEvents));
+    }
+    for (SubmitOrderSaga event : eventsByCreated.get(false)) {
+      String step = event.getStep();
+      try {
+        SubmitOrderSaga saga = handle(event);
+        if (saga != null) {
+          nextEvents.add(saga);
+        }
+      } catch (RetryLaterException ex) {
+        event.setStep(step);
+        deferredEvents.add(event);
+      } catch (SagaException ex) {
+        log.error(ex.getMessage(), ex);
+        // a step may have been set before the failure
+        event.setStep(step);
+        failedEvents.add(event);
+      }
+    }
+    sagaEventPublisher.publishAll(nextEvents).join();
+  }
+
+  // deferred events wait as long as inventory is unavailable, failed events are parked in the
+  // dead letter queue once their last attempt failed as well
+  private CompletableFuture<Void> retryLater(SubmitOrderSaga event, int attempt, boolean failed) {
+    if (failed && attempt > retryLaterMaxAttempts) {
+      sagaEventPublisher.deadLetter(event);
+      return CompletableFuture.completedFuture(null);
+    }
+    return sagaEventPublisher.retryLater(event, attempt);
+  }
 
-  @RabbitListener(queues = "${mq.submit-order-saga.queue.name}")
-  public void processSubmitOrderEvent(@Payload SubmitOrderSaga event) throws SagaException {
+  private SubmitOrderSaga handle(SubmitOrderSaga event) throws SagaException {
     log.debug(String.format("Received message %s", event.toString()));
     if (SubmitOrderSaga.CREATED.equals(event.getStep())) {
-      SubmitOrderSaga saga = decreaseInventory(event);
-      rabbitTemplate.convertAndSend(routingKey, saga);
+      return decreaseInventory(event);
     } else if (SubmitOrderSaga.DECREASED_INVENTORY.equals(event.getStep())) {
-      SubmitOrderSaga saga = submitStatus(event);
-      rabbitTemplate.convertAndSend(routingKey, saga);
+      return submitStatus(event);
     } else if (SubmitOrderSaga.DECREASED_INVENTORY_ROLLBACK.equals(event.getStep())) {
       markRollback(event);
       // final state ROLLBACK
@@ -60,11 +165,11 @@ public class SubmitOrderSagaHandler {
       markCompleted(event);
       // final state COMPLETED
     } else if (SubmitOrderSaga.SUBMITTED_STATUS_ROLLBACK.equals(event.getStep())) {
-      SubmitOrderSaga saga = rollbackDecreaseInventory(event);
-      rabbitTemplate.convertAndSend(routingKey, saga);
+      return rollbackDecreaseInventory(event);
     } else {
       log.info(String.format("received ended saga %s", event.toString()));
     }
+    return null;
   }
 
   private SubmitOrderSaga decreaseInventory(SubmitOrderSaga saga) throws SagaException {
@@ -78,35 +183,18 @@ public class SubmitOrderSagaHandler {
       List<String> productIds = order.getItems().stream().map(OrderItem::getProductId)
           .collect(Collectors.toList());
       try {
-        Map<String, InventoryItem> itemIndexByProductId = inventoryClient
-            .searchByProductIdIn(productIds, PageRequest.of(0, productIds.size())).getContent()
-            .stream().collect(Collectors.toMap(inventoryItemEntityModel -> Objects
-                    .requireNonNull(inventoryItemEntityModel.getContent()).getProductId(),
-                EntityModel::getContent));
-        Stream<Optional<InventoryItemQuantityChange>> changes = order.getItems().stream()
-            .map(item -> {
-              if (!itemIndexByProductId.containsKey(item.getProductId())) {
-                return Optional.empty();
-              }
-              InventoryItem inventoryItem = itemIndexByProductId.get(item.getProductId());
-              InventoryItemQuantityChange change = new InventoryItemQuantityChange();
-              change.setId(String.format("order-order%s-%s", order.getId(), inventoryItem.getId()));
-              change.setInventoryItemId(inventoryItem.getId());
-              change.setQuantityChange(-item.getQuantity());
-              return Optional.of(change);
-            });
-        List<InventoryItemQuantityChange> validChanges = changes.filter(Optional::isPresent).map(
-            Optional::get).collect(
-            Collectors.toList());
-        if (order.getItems().size() != validChanges.size()) {
-          throw new SagaException("can not find inventory item for some product");
-        }
+        Map<String, InventoryItem> itemIndexByProductId = inventoryService
+            .searchByProductIds(productIds);
+        List<InventoryItemQuantityChange> validChanges = buildQuantityChanges(order,
+            itemIndexByProductId, -1);
 
-        inventoryClient.changeInventoryItemQuantity(validChanges);
+        inventoryService.changeInventoryItemQuantity(validChanges);
       } catch (FeignException ex) {
         log.error(ex.getMessage(), ex);
         saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY_ROLLBACK);
         return saga;
+      } catch (CallNotPermittedException | BulkheadFullException ex) {
+        throw inventoryUnavailable(ex);
       }
       saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY);
       return saga;
@@ -116,6 +204,94 @@ public class SubmitOrderSagaHandler {
     }
   }
 
+  private List<SubmitOrderSaga> decreaseInventory(List<SubmitOrderSaga> sagas,
+      List<SubmitOrderSaga> failedEvents, List<SubmitOrderSaga> deferredEvents)
+      throws SagaException {
+    Map<String, Order> orderIndexById;
+    try {
+      orderIndexById = StreamSupport.stream(orderRepository.findAllById(
+          sagas.stream().map(SubmitOrderSaga::getOrderId).distinct().collect(Collectors.toList()))
+          .spliterator(), false).collect(Collectors.toMap(Order::getId, order -> order));
+    } catch (TransactionException | DataAccessException ex) {
+      log.error(ex.getMessage(), ex);
+      throw new SagaException(ex.getMessage(), ex);
+    }
+    List<SubmitOrderSaga> processedSagas = new ArrayList<>();
+    List<SubmitOrderSaga> pendingSagas = new ArrayList<>();
+    for (SubmitOrderSaga saga : sagas) {
+      if (orderIndexById.containsKey(saga.getOrderId())) {
+        pendingSagas.add(saga);
+      } else {
+        saga.setStep(Saga.ROLLBACK);
+        processedSagas.add(saga);
+      }
+    }
+    if (pendingSagas.isEmpty()) {
+      return processedSagas;
+    }
+
+    Map<String, InventoryItem> itemIndexByProductId;
+    try {
+      itemIndexByProductId = inventoryService.searchByProductIds(pendingSagas.stream()
+          .flatMap(saga -> orderIndexById.get(saga.getOrderId()).getItems().stream())
+          .map(OrderItem::getProductId).collect(Collectors.toList()));
+    } catch (FeignException ex) {
+      log.error(ex.getMessage(), ex);
+      pendingSagas.forEach(saga -> saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY_ROLLBACK));
+      processedSagas.addAll(pendingSagas);
+      return processedSagas;
+    } catch (CallNotPermittedException | BulkheadFullException ex) {
+      logInventoryUnavailable(ex);
+      deferredEvents.addAll(pendingSagas);
+      return processedSagas;
+    }
+    Map<SubmitOrderSaga, List<InventoryItemQuantityChange>> changesBySaga = new IdentityHashMap<>();
+    for (SubmitOrderSaga saga : pendingSagas) {
+      try {
+        changesBySaga.put(saga, buildQuantityChanges(orderIndexById.get(saga.getOrderId()),
+            itemIndexByProductId, -1));
+      } catch (SagaException ex) {
+        log.error(ex.getMessage(), ex);
+        failedEvents.add(saga);
+      }
+    }
+    if (changesBySaga.isEmpty()) {
+      return processedSagas;
+    }
+
+    try {
+      // one combined change for all orders of the batch
+      inventoryService.changeInventoryItemQuantity(changesBySaga.values().stream()
+          .flatMap(List::stream).collect(Collectors.toList()));
+      changesBySaga.keySet().forEach(saga -> saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY));
+    } catch (FeignException ex) {
+      log.error(ex.getMessage(), ex);
+      // isolate the failing orders by changing inventory order by order
+      for (Map.Entry<SubmitOrderSaga, List<InventoryItemQuantityChange>> entry
+          : changesBySaga.entrySet()) {
+        try {
+          inventoryService.changeInventoryItemQuantity(entry.getValue());
+          entry.getKey().setStep(SubmitOrderSaga.DECREASED_INVENTORY);
+        } catch (FeignException orderEx) {
+          log.error(orderEx.getMessage(), orderEx);
+          entry.getKey().setStep(SubmitOrderSaga.DECREASED_INVENTORY_ROLLBACK);
+        } catch (CallNotPermittedException | BulkheadFullException orderEx) {
+          logInventoryUnavailable(orderEx);
+          deferredEvents.add(entry.getKey());
+        }
+      }
+    } catch (CallNotPermittedException | BulkheadFullException ex) {
+      logInventoryUnavailable(ex);
+      deferredEvents.addAll(changesBySaga.keySet());
+      return processedSagas;
+    }
+    // deferred sagas keep their created step
+    changesBySaga.keySet().stream()
+        .filter(saga -> !SubmitOrderSaga.CREATED.equals(saga.getStep()))
+        .forEach(processedSagas::add);
+    return processedSagas;
+  }
+
   private SubmitOrderSaga submitStatus(SubmitOrderSaga saga) throws SagaException {
     Optional<Order> orderOptional = orderRepository.findById(saga.getOrderId());
     if (!orderOptional.isPresent()) {
@@ -131,6 +307,7 @@ public class SubmitOrderSagaHandler {
     try {
       return buildTransactionTemplate().execute(status -> {
         orderRepository.save(order);
+        orderCache.invalidate(order.getId());
         return saga;
       });
     } catch (TransactionException | DataAccessException ex) {
@@ -149,33 +326,21 @@ public class SubmitOrderSagaHandler {
       Order order = orderOptional.get();
       List<String> productIds = order.getItems().stream().map(OrderItem::getProductId)
           .collect(Collectors.toList());
-      Map<String, InventoryItem> itemIndexByProductId = inventoryClient
-          .searchByProductIdIn(productIds, PageRequest.of(0, productIds.size())).getContent()
-          .stream().collect(Collectors.toMap(inventoryItemEntityModel -> Objects
-                  .requireNonNull(inventoryItemEntityModel.getContent()).getProductId(),
-              EntityModel::getContent));
-      Stream<Optional<InventoryItemQuantityChange>> changes = order.getItems().stream()
-          .map(item -> {
-            if (!itemIndexByProductId.containsKey(item.getProductId())) {
-              return Optional.empty();
-            }
-            InventoryItem inventoryItem = itemIndexByProductId.get(item.getProductId());
-            InventoryItemQuantityChange change = new InventoryItemQuantityChange();
-            change.setId(String.format("order-order%s-%s", order.getId(), inventoryItem.getId()));
-            change.setInventoryItemId(inventoryItem.getId());
-            change.setQuantityChange(item.getQuantity());
-            return Optional.of(change);
-          });
-      List<InventoryItemQuantityChange> validChanges = changes.filter(Optional::isPresent)
-          .map(Optional::get).collect(Collectors.toList());
-      if (validChanges.size() != order.getItems().size()) {
-        throw new SagaException("can not find inventory item for some product");
+      Map<String, InventoryItem> itemIndexByProductId;
+      try {
+        itemIndexByProductId = inventoryService.searchByProductIds(productIds);
+      } catch (CallNotPermittedException | BulkheadFullException ex) {
+        throw inventoryUnavailable(ex);
       }
+      List<InventoryItemQuantityChange> validChanges = buildQuantityChanges(order,
+          itemIndexByProductId, 1);
       try {
-        inventoryClient.changeInventoryItemQuantity(validChanges);
+        inventoryService.changeInventoryItemQuantity(validChanges);
       } catch (FeignException ex) {
         log.error(ex.getMessage(), ex);
         return saga;
+      } catch (CallNotPermittedException | BulkheadFullException ex) {
+        throw inventoryUnavailable(ex);
       }
       saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY_ROLLBACK);
       return saga;
@@ -205,6 +370,41 @@ public class SubmitOrderSagaHandler {
     }
   }
 
+  static List<InventoryItemQuantityChange> buildQuantityChanges(Order order,
+      Map<String, InventoryItem> itemIndexByProductId, int sign) throws SagaException {
+    Stream<Optional<InventoryItemQuantityChange>> changes = order.getItems().stream()
+        .map(item -> {
+          if (!itemIndexByProductId.containsKey(item.getProductId())) {
+            return Optional.empty();
+          }
+          InventoryItem inventoryItem = itemIndexByProductId.get(item.getProductId());
+          InventoryItemQuantityChange change = new InventoryItemQuantityChange();
+          change.setId(String.format("order-order%s-%s", order.getId(), inventoryItem.getId()));
+          change.setInventoryItemId(inventoryItem.getId());
+          change.setQuantityChange(sign * item.getQuantity());
+          return Optional.of(change);
+        });
+    List<InventoryItemQuantityChange> validChanges = changes.filter(Optional::isPresent)
+        .map(Optional::get).collect(Collectors.toList());
+    if (validChanges.size() != order.getItems().size()) {
+      throw new SagaException("can not find inventory item for some product");
+    }
+    return validChanges;
+  }
+
+  private static int attemptOf(Integer attempt) {
+    return attempt == null ? 0 : attempt;
+  }
+
+  private static RetryLaterException inventoryUnavailable(RuntimeException ex) {
+    logInventoryUnavailable(ex);
+    return new RetryLaterException(ex.getMessage(), ex);
+  }
+
+  private static void logInventoryUnavailable(RuntimeException ex) {
+    log.warn(String.format("Inventory is unavailable, retry later: %s", ex.getMessage()));
+  }
+
   private TransactionTemplate buildTransactionTemplate() {
     return new TransactionTemplate(transactionManager);
   }
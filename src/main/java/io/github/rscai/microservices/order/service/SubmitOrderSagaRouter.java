@@ -0,0 +1,46 @@
+package io.github.rscai.microservices.order.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class SubmitOrderSagaRouter {
+
+  @Value("${mq.submit-order-saga.routing-key}")
+  private String routingKey;
+  @Value("${mq.submit-order-saga.queue.name}")
+  private String queueName;
+  @Value("${mq.submit-order-saga.shards:1}")
+  private int shards;
+
+  public int getShards() {
+    return Math.max(1, shards);
+  }
+
+  public int shardOf(String orderId) {
+    if (orderId == null) {
+      return 0;
+    }
+    return Math.floorMod(orderId.hashCode(), getShards());
+  }
+
+  public String routingKey(String orderId) {
+    return routingKeyOfShard(shardOf(orderId));
+  }
+
+  public String routingKeyOfShard(int shard) {
+    return getShards() == 1 ? routingKey : String.format("%s.%d", routingKey, shard);
+  }
+
+  public String queueNameOfShard(int shard) {
+    return getShards() == 1 ? queueName : String.format("%s.%d", queueName, shard);
+  }
+
+  public String[] getQueueNames() {
+    String[] queueNames = new String[getShards()];
+    for (int shard = 0; shard < queueNames.length; shard++) {
+      queueNames[shard] = queueNameOfShard(shard);
+    }
+    return queueNames;
+  }
+}
@@ -0,0 +1,68 @@
+package io.github.rscai.microservices.order;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+public class CachingJwtDecoderTest {
+
+  private static final String TOKEN = "header.payload.signature";
+  private JwtDecoder delegate;
+  private CachingJwtDecoder testObject;
+
+  @BeforeEach
+  public void setUp() {
+    delegate = mock(JwtDecoder.class);
+    testObject = new CachingJwtDecoder(delegate, 100, Duration.ofMinutes(5),
+        new SimpleMeterRegistry());
+  }
+
+  @Test
+  public void testVerifyOnceUntilExpiry() {
+    when(delegate.decode(TOKEN)).thenReturn(jwt(Instant.now().plusSeconds(60)));
+
+    assertThat(testObject.decode(TOKEN).getSubject(), is("customer1"));
+    assertThat(testObject.decode(TOKEN).getSubject(), is("customer1"));
+
+    verify(delegate, times(1)).decode(TOKEN);
+  }
+
+  @Test
+  public void testExpiredTokenIsVerifiedAgain() {
+    when(delegate.decode(TOKEN)).thenReturn(jwt(Instant.now().minusSeconds(1)));
+
+    testObject.decode(TOKEN);
+    testObject.decode(TOKEN);
+
+    verify(delegate, times(2)).decode(TOKEN);
+  }
+
+  @Test
+  public void testInvalidTokenIsNotCached() {
+    when(delegate.decode(TOKEN)).thenThrow(new JwtException("bad signature"));
+
+    assertThrows(JwtException.class, () -> testObject.decode(TOKEN));
+    assertThrows(JwtException.class, () -> testObject.decode(TOKEN));
+
+    verify(delegate, times(2)).decode(TOKEN);
+  }
+
+  private static Jwt jwt(Instant expiresAt) {
+    return new Jwt(TOKEN, expiresAt.minusSeconds(300), expiresAt,
+        Collections.singletonMap("alg", "RS256"), Collections.singletonMap("sub", "customer1"));
+  }
+}
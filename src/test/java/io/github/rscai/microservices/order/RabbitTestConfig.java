@@ -6,6 +6,8 @@ import static org.mockito.Mockito.when;
 
 import com.rabbitmq.client.Channel;
 import java.io.IOException;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.Connection;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.test.TestRabbitTemplate;
@@ -32,4 +34,23 @@ public class RabbitTestConfig {
     when(channel.isOpen()).thenReturn(true);
     return factory;
   }
+
+  @Bean
+  public DirectRabbitListenerContainerFactory sagaListenerContainerFactory() throws IOException {
+    DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+    factory.setConnectionFactory(connectionFactory());
+    factory.setAutoStartup(false);
+    return factory;
+  }
+
+  @Bean
+  public SimpleRabbitListenerContainerFactory sagaBatchListenerContainerFactory()
+      throws IOException {
+    SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+    factory.setConnectionFactory(connectionFactory());
+    factory.setBatchListener(true);
+    factory.setConsumerBatchEnabled(true);
+    factory.setAutoStartup(false);
+    return factory;
+  }
 }
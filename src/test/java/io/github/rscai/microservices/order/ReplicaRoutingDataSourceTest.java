@@ -0,0 +1,105 @@
+package io.github.rscai.microservices.order;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Collections;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class ReplicaRoutingDataSourceTest {
+
+  private static final String REPLICA_KEY = "replica-0";
+  private ReplicaRoutingDataSource testObject;
+  private JdbcTemplate jdbcTemplate;
+  private TransactionTemplate readOnlyTransaction;
+  private TransactionTemplate readWriteTransaction;
+
+  @BeforeEach
+  public void setUp() {
+    DataSource primary = database("primary");
+    DataSource replica = database("replica");
+    testObject = new ReplicaRoutingDataSource(primary, Collections.singletonList(replica), 2);
+    testObject.setLagSeconds(REPLICA_KEY, 0L);
+    DataSource dataSource = new LazyConnectionDataSourceProxy(testObject);
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(
+        dataSource);
+    readOnlyTransaction = new TransactionTemplate(transactionManager);
+    readOnlyTransaction.setReadOnly(true);
+    readWriteTransaction = new TransactionTemplate(transactionManager);
+    ReplicaRoutingDataSource.beginRequest(false);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ReplicaRoutingDataSource.endRequest();
+  }
+
+  @Test
+  public void testReadOnlyTransactionGoesToReplica() {
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("replica"));
+    assertThat(readWriteTransaction.execute(status -> databaseName()), is("primary"));
+  }
+
+  @Test
+  public void testLaggingReplicaFallsBackToPrimary() {
+    testObject.setLagSeconds(REPLICA_KEY, 10L);
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("primary"));
+
+    testObject.setLagSeconds(REPLICA_KEY, null);
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("primary"));
+  }
+
+  @Test
+  public void testReadYourWritesAfterWriteTransaction() {
+    readWriteTransaction.execute(status -> jdbcTemplate.update("update db set name = name"));
+
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("primary"));
+  }
+
+  @Test
+  public void testOnPrimary() {
+    assertThat(ReplicaRoutingDataSource.onPrimary(
+        () -> readOnlyTransaction.execute(status -> databaseName())), is("primary"));
+
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("replica"));
+  }
+
+  @Test
+  public void testBackgroundWorkReadsPrimary() {
+    ReplicaRoutingDataSource.endRequest();
+
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("primary"));
+  }
+
+  @Test
+  public void testCheckLag() {
+    testObject.checkLag("select 5 as replica_lag from db", "replica_lag");
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("primary"));
+
+    testObject.checkLag("select 0 as replica_lag from db", "replica_lag");
+    assertThat(readOnlyTransaction.execute(status -> databaseName()), is("replica"));
+  }
+
+  private String databaseName() {
+    return jdbcTemplate.queryForObject("select name from db", String.class);
+  }
+
+  private static DataSource database(String name) {
+    DriverManagerDataSource dataSource = new DriverManagerDataSource(
+        String.format("jdbc:h2:mem:routing-%s;DB_CLOSE_DELAY=-1", name), "sa", "");
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("create table if not exists db (name varchar(16))");
+    jdbcTemplate.update("delete from db");
+    jdbcTemplate.update("insert into db (name) values (?)", name);
+    return dataSource;
+  }
+}
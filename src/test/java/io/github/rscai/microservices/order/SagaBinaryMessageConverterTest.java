@@ -0,0 +1,116 @@
+package io.github.rscai.microservices.order;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+public class SagaBinaryMessageConverterTest {
+
+  private final Jackson2JsonMessageConverter jsonConverter = new Jackson2JsonMessageConverter();
+  private final SagaBinaryMessageConverter testObject = new SagaBinaryMessageConverter(
+      jsonConverter, true);
+
+  @Test
+  public void testRoundTrip() {
+    SubmitOrderSaga saga = saga();
+
+    Message message = testObject.toMessage(saga, new MessageProperties());
+    assertThat(message.getMessageProperties().getContentType(),
+        is(SagaBinaryMessageConverter.CONTENT_TYPE));
+    assertThat(message.getMessageProperties().getHeaders().containsKey("__TypeId__"), is(false));
+
+    assertSaga(testObject.fromMessage(message), saga);
+  }
+
+  @Test
+  public void testAbsentFieldsStayNull() {
+    SubmitOrderSaga saga = new SubmitOrderSaga();
+    saga.setOrderId("order1");
+    saga.setStep(SubmitOrderSaga.CREATED);
+
+    SubmitOrderSaga decoded = (SubmitOrderSaga) testObject
+        .fromMessage(testObject.toMessage(saga, new MessageProperties()));
+    assertThat(decoded.getId(), nullValue());
+    assertThat(decoded.getCreatedAt(), nullValue());
+    assertSaga(decoded, saga);
+  }
+
+  @Test
+  public void testReadJsonMessage() {
+    SubmitOrderSaga saga = saga();
+
+    Object decoded = testObject.fromMessage(jsonConverter.toMessage(saga, new MessageProperties()));
+    assertThat(decoded, instanceOf(SubmitOrderSaga.class));
+    assertSaga(decoded, saga);
+  }
+
+  @Test
+  public void testWriteJsonUntilEnabled() {
+    Message message = new SagaBinaryMessageConverter(jsonConverter, false)
+        .toMessage(saga(), new MessageProperties());
+    assertThat(message.getMessageProperties().getContentType(),
+        is(MessageProperties.CONTENT_TYPE_JSON));
+  }
+
+  @Test
+  public void testSkipUnknownField() {
+    SubmitOrderSaga saga = saga();
+    byte[] body = SagaBinaryMessageConverter.encode(saga);
+    // a field added by a newer writer
+    byte[] newerBody = Arrays.copyOf(body, body.length + 5);
+    newerBody[body.length] = 99;
+    newerBody[body.length + 1] = 3;
+    newerBody[body.length + 2] = 'a';
+    newerBody[body.length + 3] = 'b';
+    newerBody[body.length + 4] = 'c';
+
+    assertSaga(SagaBinaryMessageConverter.decode(newerBody), saga);
+  }
+
+  @Test
+  public void testTruncatedMessage() {
+    byte[] body = SagaBinaryMessageConverter.encode(saga());
+    assertThrows(MessageConversionException.class,
+        () -> SagaBinaryMessageConverter.decode(Arrays.copyOf(body, body.length - 3)));
+  }
+
+  @Test
+  public void testMalformedDateField() {
+    // a created at of 4 bytes followed by a step
+    byte[] body = {SagaBinaryMessageConverter.VERSION, SagaBinaryMessageConverter.TAG_CREATED_AT,
+        4, 0, 0, 0, 1, SagaBinaryMessageConverter.TAG_STEP, 1, 'a'};
+    assertThrows(MessageConversionException.class,
+        () -> SagaBinaryMessageConverter.decode(body));
+  }
+
+  // equals of SubmitOrderSaga ignores the fields of Saga
+  private static void assertSaga(Object actual, SubmitOrderSaga expected) {
+    SubmitOrderSaga saga = (SubmitOrderSaga) actual;
+    assertThat(saga.getId(), is(expected.getId()));
+    assertThat(saga.getStep(), is(expected.getStep()));
+    assertThat(saga.getOrderId(), is(expected.getOrderId()));
+    assertThat(saga.getCreatedAt(), is(expected.getCreatedAt()));
+    assertThat(saga.getUpdatedAt(), is(expected.getUpdatedAt()));
+  }
+
+  private static SubmitOrderSaga saga() {
+    SubmitOrderSaga saga = new SubmitOrderSaga();
+    saga.setId("0170d2b5-5a6e-7c3a-9d1f-2a8e4b9c1d7e");
+    saga.setOrderId("0170d2b5-5a6e-7000-8000-0123456789ab");
+    saga.setStep(SubmitOrderSaga.DECREASED_INVENTORY);
+    saga.setCreatedAt(new Date(1580000000000L));
+    saga.setUpdatedAt(new Date(1580000000123L));
+    return saga;
+  }
+}
@@ -2,6 +2,7 @@ package io.github.rscai.microservices.order.controller;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
@@ -9,6 +10,9 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.restdocs.hypermedia.HypermediaDocumentation.halLinks;
@@ -23,31 +27,55 @@ import static org.springframework.restdocs.payload.PayloadDocumentation.subsecti
 import static org.springframework.restdocs.request.RequestDocumentation.parameterWithName;
 import static org.springframework.restdocs.request.RequestDocumentation.pathParameters;
 import static org.springframework.restdocs.request.RequestDocumentation.requestParameters;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.rscai.microservices.order.model.BatchTransitionRequest;
 import io.github.rscai.microservices.order.model.InventoryItem;
 import io.github.rscai.microservices.order.model.Order;
 import io.github.rscai.microservices.order.model.Order.State;
 import io.github.rscai.microservices.order.model.OrderItem;
+import io.github.rscai.microservices.order.model.OutboxEvent;
 import io.github.rscai.microservices.order.repository.OrderRepository;
+import io.github.rscai.microservices.order.repository.OutboxEventRepository;
 import io.github.rscai.microservices.order.saga.Saga;
 import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
 import io.github.rscai.microservices.order.service.InventoryClient;
+import io.github.rscai.microservices.order.service.InventoryService;
+import io.github.rscai.microservices.order.service.OrderCache;
+import io.github.rscai.microservices.order.service.OutboxRelay;
+import io.github.rscai.microservices.order.service.ProductPriceCache;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
@@ -57,7 +85,9 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.restdocs.hypermedia.HypermediaDocumentation;
 import org.springframework.restdocs.hypermedia.LinkDescriptor;
 import org.springframework.restdocs.hypermedia.LinksSnippet;
@@ -71,6 +101,7 @@ import org.springframework.restdocs.request.RequestParametersSnippet;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @ActiveProfiles("test")
 @SpringBootTest
@@ -96,6 +127,16 @@ public class OrderControllerTest {
   private RabbitTemplate mockAmqpTemplate;
   @Autowired
   private PagedResourcesAssembler<InventoryItem> pagedResourcesAssembler;
+  @Autowired
+  private ProductPriceCache productPriceCache;
+  @Autowired
+  private OutboxEventRepository outboxEventRepository;
+  @Autowired
+  private OutboxRelay outboxRelay;
+  @Autowired
+  private OrderCache orderCache;
+  @Autowired
+  private CircuitBreakerRegistry circuitBreakerRegistry;
 
   private String openOrderId;
   private String submittedOrderId;
@@ -165,6 +206,11 @@ public class OrderControllerTest {
   @AfterEach
   private void tearDown() {
     orderRepository.deleteAll();
+    outboxEventRepository.deleteAll();
+    productPriceCache.invalidateAll();
+    orderCache.invalidateAll();
+    circuitBreakerRegistry.circuitBreaker(InventoryService.CIRCUIT_BREAKER)
+        .transitionToClosedState();
   }
 
 
@@ -178,21 +224,20 @@ public class OrderControllerTest {
     InventoryItem inventoryItemB = new InventoryItem("2", PRODUCT_ID_B, 100,
         BigDecimal.valueOf(200.00F), new Date(), new Date());
     mockInventoryItems.put(inventoryItemB.getProductId(), inventoryItemB);
-    when(mockInventoryClient.searchByProductIdIn(anyList(), any())).thenAnswer(invocation -> {
-      final List<?> productIds = invocation.getArgument(0, List.class);
-      final InventoryItem inventoryItem = mockInventoryItems.get(productIds.get(0));
-      return pagedResourcesAssembler.toModel(new PageImpl<>(
-          Collections.singletonList(inventoryItem), PageRequest.of(0, 10), 1));
-    });
+    mockInventoryItems(mockInventoryItems);
     Order newOne = new Order();
     newOne.setCustomerId(CUSTOMER_ID_A);
     newOne.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE),
         new OrderItem(PRODUCT_ID_B, 3, BigDecimal.ONE)));
     newOne.setAmount(BigDecimal.ZERO);
 
-    final String createdOneJson = mvc.perform(
+    MvcResult result = mvc.perform(
         post("/orders").contentType(MediaType.APPLICATION_JSON).accept(APPLICATION_HAL)
-            .content(objectMapper.writeValueAsString(newOne))).andExpect(status().isCreated())
+            .content(objectMapper.writeValueAsString(newOne)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    final String createdOneJson = mvc.perform(asyncDispatch(result))
+        .andExpect(status().isCreated())
         .andExpect(content().contentTypeCompatibleWith(APPLICATION_HAL))
         .andExpect(jsonPath("$.customerId", is(CUSTOMER_ID_A)))
         .andExpect(jsonPath("$.items", hasSize(2)))
@@ -225,6 +270,227 @@ public class OrderControllerTest {
             itemLinks(), itemResponseFields()));
   }
 
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateWithDuplicatedProducts() throws Exception {
+    Map<String, InventoryItem> mockInventoryItems = new HashMap<>();
+    InventoryItem inventoryItemA = new InventoryItem("1", PRODUCT_ID_A, 100,
+        BigDecimal.valueOf(100.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemA.getProductId(), inventoryItemA);
+    InventoryItem inventoryItemB = new InventoryItem("2", PRODUCT_ID_B, 100,
+        BigDecimal.valueOf(200.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemB.getProductId(), inventoryItemB);
+    mockInventoryItems(mockInventoryItems);
+    Order newOne = new Order();
+    newOne.setCustomerId(CUSTOMER_ID_A);
+    newOne.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE),
+        new OrderItem(PRODUCT_ID_B, 3, BigDecimal.ONE),
+        new OrderItem(PRODUCT_ID_A, 1, BigDecimal.ONE)));
+
+    MvcResult result = mvc.perform(
+        post("/orders").contentType(MediaType.APPLICATION_JSON).accept(APPLICATION_HAL)
+            .content(objectMapper.writeValueAsString(newOne)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mvc.perform(asyncDispatch(result))
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$.items", hasSize(3)))
+        .andExpect(jsonPath("$.amount", is(closeTo(900.00, 0.001))));
+
+    ArgumentCaptor<List<String>> productIdsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(mockInventoryClient).searchByProductIdIn(productIdsCaptor.capture(), any());
+    assertThat(productIdsCaptor.getValue(), containsInAnyOrder(PRODUCT_ID_A, PRODUCT_ID_B));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateWithUnknownProduct() throws Exception {
+    Map<String, InventoryItem> mockInventoryItems = new HashMap<>();
+    InventoryItem inventoryItemA = new InventoryItem("1", PRODUCT_ID_A, 100,
+        BigDecimal.valueOf(100.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemA.getProductId(), inventoryItemA);
+    mockInventoryItems(mockInventoryItems);
+    Order newOne = new Order();
+    newOne.setCustomerId(CUSTOMER_ID_A);
+    newOne.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE),
+        new OrderItem(PRODUCT_ID_B, 3, BigDecimal.ONE)));
+
+    MvcResult result = mvc.perform(
+        post("/orders").contentType(MediaType.APPLICATION_JSON).accept(APPLICATION_HAL)
+            .content(objectMapper.writeValueAsString(newOne)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mvc.perform(asyncDispatch(result))
+        .andExpect(status().isConflict());
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateWhenInventoryFails() throws Exception {
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any()))
+        .thenThrow(new IllegalStateException("inventory is down"));
+    Order newOne = new Order();
+    newOne.setCustomerId(CUSTOMER_ID_A);
+    newOne.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE)));
+    long countBefore = orderRepository.count();
+
+    MvcResult result = mvc.perform(
+        post("/orders").contentType(MediaType.APPLICATION_JSON).accept(APPLICATION_HAL)
+            .content(objectMapper.writeValueAsString(newOne)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    assertThat(result.getAsyncResult(), instanceOf(IllegalStateException.class));
+    assertThat(orderRepository.count(), is(countBefore));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateWhenCircuitIsOpen() throws Exception {
+    circuitBreakerRegistry.circuitBreaker(InventoryService.CIRCUIT_BREAKER)
+        .transitionToForcedOpenState();
+    Order newOne = new Order();
+    newOne.setCustomerId(CUSTOMER_ID_A);
+    newOne.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE)));
+
+    MvcResult result = mvc.perform(
+        post("/orders").contentType(MediaType.APPLICATION_JSON).accept(APPLICATION_HAL)
+            .content(objectMapper.writeValueAsString(newOne)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mvc.perform(asyncDispatch(result))
+        .andExpect(status().isServiceUnavailable());
+    verify(mockInventoryClient, never()).searchByProductIdIn(anyList(), any());
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateTimedOut() throws Exception {
+    CountDownLatch timedOut = new CountDownLatch(1);
+    CountDownLatch priced = new CountDownLatch(1);
+    InventoryItem inventoryItemA = new InventoryItem("1", PRODUCT_ID_A, 100,
+        BigDecimal.valueOf(100.00F), new Date(), new Date());
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any())).thenAnswer(invocation -> {
+      try {
+        timedOut.await(5, TimeUnit.SECONDS);
+        return pagedResourcesAssembler.toModel(new PageImpl<>(
+            Collections.singletonList(inventoryItemA), PageRequest.of(0, 1), 1));
+      } finally {
+        priced.countDown();
+      }
+    });
+    Order newOne = new Order();
+    newOne.setCustomerId(CUSTOMER_ID_A);
+    newOne.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE)));
+    long countBefore = orderRepository.count();
+
+    MvcResult result = mvc.perform(
+        post("/orders").contentType(MediaType.APPLICATION_JSON).accept(APPLICATION_HAL)
+            .content(objectMapper.writeValueAsString(newOne)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    // the container gives up on the request while inventory is still pricing the order
+    MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+    for (AsyncListener listener : asyncContext.getListeners()) {
+      listener.onTimeout(new AsyncEvent(asyncContext));
+    }
+    timedOut.countDown();
+    mvc.perform(asyncDispatch(result))
+        .andExpect(status().isGatewayTimeout());
+
+    assertThat(priced.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(orderRepository.count(), is(countBefore));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateBatch() throws Exception {
+    Map<String, InventoryItem> mockInventoryItems = new HashMap<>();
+    InventoryItem inventoryItemA = new InventoryItem("1", PRODUCT_ID_A, 100,
+        BigDecimal.valueOf(100.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemA.getProductId(), inventoryItemA);
+    InventoryItem inventoryItemB = new InventoryItem("2", PRODUCT_ID_B, 100,
+        BigDecimal.valueOf(200.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemB.getProductId(), inventoryItemB);
+    mockInventoryItems(mockInventoryItems);
+    Order orderA = new Order();
+    orderA.setCustomerId(CUSTOMER_ID_A);
+    orderA.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE),
+        new OrderItem(PRODUCT_ID_B, 1, BigDecimal.ONE)));
+    Order orderB = new Order();
+    orderB.setCustomerId(CUSTOMER_ID_A);
+    orderB.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_B, 3, BigDecimal.ONE)));
+    Order unknownProductOrder = new Order();
+    unknownProductOrder.setCustomerId(CUSTOMER_ID_A);
+    unknownProductOrder.setItems(Arrays.asList(new OrderItem("productC", 1, BigDecimal.ONE)));
+    Order emptyOrder = new Order();
+    emptyOrder.setCustomerId(CUSTOMER_ID_A);
+    long countBefore = orderRepository.count();
+
+    mvc.perform(post("/orders/batch").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(
+            Arrays.asList(orderA, orderB, unknownProductOrder, emptyOrder))))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(4)))
+        .andExpect(jsonPath("$[0].status", is(201)))
+        .andExpect(jsonPath("$[0].id", notNullValue()))
+        .andExpect(jsonPath("$[1].status", is(201)))
+        .andExpect(jsonPath("$[2].status", is(409)))
+        .andExpect(jsonPath("$[3].status", is(400)));
+
+    assertThat(orderRepository.count(), is(countBefore + 2));
+    ArgumentCaptor<List<String>> productIdsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(mockInventoryClient).searchByProductIdIn(productIdsCaptor.capture(), any());
+    assertThat(productIdsCaptor.getValue(),
+        containsInAnyOrder(PRODUCT_ID_A, PRODUCT_ID_B, "productC"));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCreateBatchWithInvalidOrder() throws Exception {
+    Map<String, InventoryItem> mockInventoryItems = new HashMap<>();
+    InventoryItem inventoryItemA = new InventoryItem("1", PRODUCT_ID_A, 100,
+        BigDecimal.valueOf(100.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemA.getProductId(), inventoryItemA);
+    InventoryItem inventoryItemB = new InventoryItem("2", PRODUCT_ID_B, 100,
+        BigDecimal.valueOf(200.00F), new Date(), new Date());
+    mockInventoryItems.put(inventoryItemB.getProductId(), inventoryItemB);
+    mockInventoryItems(mockInventoryItems);
+    Order orderA = new Order();
+    orderA.setCustomerId(CUSTOMER_ID_A);
+    orderA.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 2, BigDecimal.ONE),
+        new OrderItem(PRODUCT_ID_B, 1, BigDecimal.ONE)));
+    // violates the not null constraint of customer_id
+    Order invalidOrder = new Order();
+    invalidOrder.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_A, 1, BigDecimal.ONE)));
+    Order orderB = new Order();
+    orderB.setCustomerId(CUSTOMER_ID_A);
+    orderB.setItems(Arrays.asList(new OrderItem(PRODUCT_ID_B, 3, BigDecimal.ONE)));
+    long countBefore = orderRepository.count();
+
+    String response = mvc.perform(post("/orders/batch").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(Arrays.asList(orderA, invalidOrder, orderB))))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(3)))
+        .andExpect(jsonPath("$[0].status", is(201)))
+        .andExpect(jsonPath("$[1].status", is(422)))
+        .andExpect(jsonPath("$[2].status", is(201)))
+        .andReturn().getResponse().getContentAsString();
+
+    // the other orders are saved one by one, with all of their items
+    assertThat(orderRepository.count(), is(countBefore + 2));
+    String idA = JsonPath.read(response, "$[0].id");
+    String idB = JsonPath.read(response, "$[2].id");
+    Order savedA = orderRepository.findById(idA)
+        .orElseThrow(() -> new AssertionError("required order, but missed"));
+    assertThat(savedA.getItems(), hasSize(2));
+    assertThat(savedA.getItems().get(0).getProductId(), is(PRODUCT_ID_A));
+    assertThat(savedA.getItems().get(1).getProductId(), is(PRODUCT_ID_B));
+    Order savedB = orderRepository.findById(idB)
+        .orElseThrow(() -> new AssertionError("required order, but missed"));
+    assertThat(savedB.getItems(), hasSize(1));
+    assertThat(savedB.getItems().get(0).getQuantity(), is(3));
+  }
+
   @Test
   @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
   public void testSubmitPass() throws Exception {
@@ -233,12 +499,98 @@ public class OrderControllerTest {
         .andDo(document("order/submit",
             pathParameters(parameterWithName("id").description("order's unique identifier"))));
 
+    // the event is only recorded in the outbox, the relay publishes it
+    verify(mockAmqpTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    assertThat(outboxEventRepository.countBySentAtIsNull(), is(1L));
+
+    assertThat(outboxRelay.relayPending(), is(1));
+
     ArgumentCaptor<Object> submitOrderEventCaptor = ArgumentCaptor.forClass(Object.class);
     verify(mockAmqpTemplate).convertAndSend(anyString(), submitOrderEventCaptor.capture());
     Object submitOrderSaga = submitOrderEventCaptor.getValue();
     assertThat(submitOrderSaga, instanceOf(SubmitOrderSaga.class));
     assertThat(((SubmitOrderSaga) submitOrderSaga).getOrderId(), is(openOrderId));
     assertThat(((SubmitOrderSaga) submitOrderSaga).getStep(), is(Saga.CREATED));
+    assertThat(outboxEventRepository.countBySentAtIsNull(), is(0L));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testSubmitIfMatch() throws Exception {
+    String etag = mvc.perform(get("/orders/{id}", openOrderId).accept(APPLICATION_HAL))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mvc.perform(put("/orders/{id}/submit", openOrderId).header(HttpHeaders.IF_MATCH, etag))
+        .andExpect(status().isNoContent());
+    // a second client holding the same ETag must not start another saga
+    mvc.perform(put("/orders/{id}/submit", openOrderId).header(HttpHeaders.IF_MATCH, etag))
+        .andExpect(status().isPreconditionFailed());
+
+    assertThat(outboxEventRepository.countBySentAtIsNull(), is(1L));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testSubmitKeepsUnpublishedEventPending() throws Exception {
+    mvc.perform(put("/orders/{id}/submit", openOrderId).accept(APPLICATION_HAL))
+        .andExpect(status().isNoContent());
+
+    doThrow(new AmqpException("broker is unavailable")).when(mockAmqpTemplate)
+        .convertAndSend(anyString(), any(Object.class));
+    assertThat(outboxRelay.relayPending(), is(0));
+    assertThat(outboxEventRepository.countBySentAtIsNull(), is(1L));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testRelaySkipsEventClaimedByAnotherRelay() throws Exception {
+    mvc.perform(put("/orders/{id}/submit", openOrderId).accept(APPLICATION_HAL))
+        .andExpect(status().isNoContent());
+    OutboxEvent event = outboxEventRepository.findAll().iterator().next();
+    event.setClaimedBy("another-relay");
+    event.setClaimedUntil(new Date(System.currentTimeMillis() + 60000));
+    outboxEventRepository.save(event);
+
+    assertThat(outboxRelay.relayPending(), is(0));
+    verify(mockAmqpTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    assertThat(outboxEventRepository.countBySentAtIsNull(), is(1L));
+
+    // once the claim expired, the event is claimed again
+    event.setClaimedUntil(new Date(System.currentTimeMillis() - 1));
+    outboxEventRepository.save(event);
+    assertThat(outboxRelay.relayPending(), is(1));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testRelaySkipsUnreadableEvent() throws Exception {
+    OutboxEvent unreadable = new OutboxEvent();
+    unreadable.setType("unknown");
+    unreadable.setPayload("{}");
+    String unreadableId = outboxEventRepository.save(unreadable).getId();
+    mvc.perform(put("/orders/{id}/submit", openOrderId).accept(APPLICATION_HAL))
+        .andExpect(status().isNoContent());
+
+    assertThat(outboxRelay.relayPending(), is(1));
+    verify(mockAmqpTemplate, times(1)).convertAndSend(anyString(), any(Object.class));
+    assertThat(outboxEventRepository.findById(unreadableId).get().getFailedAt(),
+        notNullValue());
+    assertThat(outboxEventRepository.countBySentAtIsNullAndFailedAtIsNull(), is(0L));
+    assertThat(outboxRelay.relayPending(), is(0));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testPurgeSentEvents() throws Exception {
+    mvc.perform(put("/orders/{id}/submit", openOrderId).accept(APPLICATION_HAL))
+        .andExpect(status().isNoContent());
+    assertThat(outboxRelay.relayPending(), is(1));
+
+    // sent events are kept for the retention period
+    assertThat(outboxRelay.purgeSentBefore(new Date(System.currentTimeMillis() - 60000)), is(0));
+    assertThat(outboxEventRepository.count(), is(1L));
+    assertThat(outboxRelay.purgeSentBefore(new Date(System.currentTimeMillis() + 1000)), is(1));
+    assertThat(outboxEventRepository.count(), is(0L));
   }
 
   @Test
@@ -286,6 +638,62 @@ public class OrderControllerTest {
         .andExpect(status().isConflict());
   }
 
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testStartDeliveryAll() throws Exception {
+    BatchTransitionRequest request = new BatchTransitionRequest();
+    request.setIds(Arrays.asList(submittedOrderId, onDeliveryOrderId, "unknown"));
+
+    mvc.perform(put("/orders/startDelivery").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(3)))
+        .andExpect(jsonPath("$[0].id", is(submittedOrderId)))
+        .andExpect(jsonPath("$[0].status", is(204)))
+        .andExpect(jsonPath("$[1].id", is(onDeliveryOrderId)))
+        .andExpect(jsonPath("$[1].status", is(409)))
+        .andExpect(jsonPath("$[2].id", is("unknown")))
+        .andExpect(jsonPath("$[2].status", is(404)));
+
+    assertThat(orderRepository.findById(submittedOrderId).get().getState(),
+        is(State.ON_DELIVERY));
+  }
+
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testCompleteDeliveryAllUpdatedBefore() throws Exception {
+    BatchTransitionRequest request = new BatchTransitionRequest();
+    request.setUpdatedBefore(new Date(System.currentTimeMillis() + 60000));
+
+    mvc.perform(put("/orders/completeDelivery").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].id", is(onDeliveryOrderId)))
+        .andExpect(jsonPath("$[0].status", is(204)));
+
+    assertThat(orderRepository.findById(onDeliveryOrderId).get().getState(),
+        is(State.DELIVERED));
+  }
+
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testStartDeliveryAllWithoutCriteria() throws Exception {
+    mvc.perform(put("/orders/startDelivery").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(new BatchTransitionRequest())))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testStartDeliveryAllForbidden() throws Exception {
+    BatchTransitionRequest request = new BatchTransitionRequest();
+    request.setUpdatedBefore(new Date());
+    mvc.perform(put("/orders/startDelivery").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isForbidden());
+  }
+
   @Test
   @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
   public void testClosePass() throws Exception {
@@ -324,6 +732,76 @@ public class OrderControllerTest {
         .andExpect(status().isConflict());
   }
 
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCancelNotFound() throws Exception {
+    mvc.perform(put("/orders/{id}/cancel", "unknown"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCancelBumpsVersion() throws Exception {
+    long version = orderRepository.findById(openOrderId).get().getVersion();
+    mvc.perform(put("/orders/{id}/cancel", openOrderId))
+        .andExpect(status().isNoContent());
+    // the second, concurrent looking, cancel loses the compare-and-set
+    mvc.perform(put("/orders/{id}/cancel", openOrderId))
+        .andExpect(status().isConflict());
+
+    assertThat(orderRepository.findById(openOrderId).get().getVersion(), is(version + 1));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testGetOneNotModified() throws Exception {
+    String etag = mvc.perform(get("/orders/{id}", openOrderId).accept(APPLICATION_HAL))
+        .andExpect(status().isOk())
+        .andExpect(header().exists(HttpHeaders.ETAG))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mvc.perform(get("/orders/{id}", openOrderId).accept(APPLICATION_HAL)
+        .header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, etag))
+        .andExpect(content().string(""));
+    mvc.perform(put("/orders/{id}/cancel", openOrderId))
+        .andExpect(status().isNoContent());
+    mvc.perform(get("/orders/{id}", openOrderId).accept(APPLICATION_HAL)
+        .header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.state", is(State.CANCELLED.toString())));
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testCancelIfMatch() throws Exception {
+    String etag = mvc.perform(get("/orders/{id}", openOrderId).accept(APPLICATION_HAL))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mvc.perform(put("/orders/{id}/cancel", openOrderId).header(HttpHeaders.IF_MATCH, "\"-1\""))
+        .andExpect(status().isPreconditionFailed());
+    mvc.perform(put("/orders/{id}/cancel", openOrderId).header(HttpHeaders.IF_MATCH, etag))
+        .andExpect(status().isNoContent());
+    // the order has changed since the client has seen it
+    mvc.perform(put("/orders/{id}/cancel", openOrderId).header(HttpHeaders.IF_MATCH, etag))
+        .andExpect(status().isPreconditionFailed());
+  }
+
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testSearchByStatesNotModified() throws Exception {
+    String etag = mvc.perform(get("/orders/search/stateIn?state={state}", State.SUBMITTED)
+        .accept(APPLICATION_HAL))
+        .andExpect(status().isOk())
+        .andExpect(header().exists(HttpHeaders.ETAG))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mvc.perform(get("/orders/search/stateIn?state={state}", State.SUBMITTED)
+        .accept(APPLICATION_HAL).header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified());
+  }
+
   @Test
   @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
   public void testGetSearchByStates() throws Exception {
@@ -354,6 +832,102 @@ public class OrderControllerTest {
             pageLinks(), pageResponseFields()));
   }
 
+  @Test
+  @WithMockUser(username = "customer1", authorities = {SCOPE_ORDER_USE})
+  public void testSeekByStates() throws Exception {
+    String firstPage = mvc.perform(
+        get("/orders/search/stateIn?state={state1}&state={state2}&state={state3}"
+                + "&state={state4}&cursor=&size={size}&count=true",
+            State.OPEN, State.SUBMITTED, State.ON_DELIVERY, State.DELIVERED, 3)
+            .accept(APPLICATION_HAL))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$._embedded.orders", hasSize(3)))
+        .andExpect(jsonPath("$._embedded.orders[0].state", is(State.OPEN.toString())))
+        .andExpect(jsonPath("$.page.totalElements", is(4)))
+        .andExpect(jsonPath("$._links.prev").doesNotExist())
+        .andReturn().getResponse().getContentAsString();
+
+    String nextHref = JsonPath.read(firstPage, "$._links.next.href");
+    String lastPage = mvc.perform(get(nextHref).accept(APPLICATION_HAL))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$._embedded.orders", hasSize(1)))
+        .andExpect(jsonPath("$._embedded.orders[0].state", is(State.DELIVERED.toString())))
+        .andExpect(jsonPath("$._links.next").doesNotExist())
+        .andReturn().getResponse().getContentAsString();
+
+    String prevHref = JsonPath.read(lastPage, "$._links.prev.href");
+    mvc.perform(get(prevHref).accept(APPLICATION_HAL))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$._embedded.orders", hasSize(3)))
+        .andExpect(jsonPath("$._embedded.orders[0].state", is(State.OPEN.toString())))
+        .andExpect(jsonPath("$._embedded.orders[2].state", is(State.ON_DELIVERY.toString())))
+        .andExpect(jsonPath("$._links.next.href").exists());
+  }
+
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testSeekByCustomerIdWithInvalidCursor() throws Exception {
+    mvc.perform(get("/orders/search/customerId?customerId={customerId}&cursor={cursor}",
+        CUSTOMER_ID_A, "invalid").accept(APPLICATION_HAL))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testExportByStates() throws Exception {
+    MvcResult result = mvc.perform(get("/orders/export?state={state1}&state={state2}",
+        State.SUBMITTED, State.ON_DELIVERY))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    String content = mvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+        .andReturn().getResponse().getContentAsString();
+
+    String[] lines = content.split("\n");
+    assertThat(lines.length, is(2));
+    assertThat(objectMapper.readValue(lines[0], Order.class).getId(), is(submittedOrderId));
+    assertThat(objectMapper.readValue(lines[1], Order.class).getId(), is(onDeliveryOrderId));
+  }
+
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testExportByCustomerIdAsGzippedCsv() throws Exception {
+    MvcResult result = mvc.perform(get("/orders/export?customerId={customerId}&format=csv",
+        CUSTOMER_ID_A).header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    byte[] content = mvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andReturn().getResponse().getContentAsByteArray();
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(content)), StandardCharsets.UTF_8))) {
+      List<String> lines = reader.lines().collect(Collectors.toList());
+      assertThat(lines, hasSize(7));
+      assertThat(lines.get(0), is("id,customerId,state,amount,createdAt,updatedAt,items"));
+      assertThat(lines.get(1).startsWith(openOrderId + "," + CUSTOMER_ID_A + ",OPEN,"), is(true));
+    }
+  }
+
+  @Test
+  @WithMockUser(username = "order_ops", authorities = {SCOPE_ORDER_OPERATE, SCOPE_ORDER_USE})
+  public void testExportWithoutCriteria() throws Exception {
+    mvc.perform(get("/orders/export"))
+        .andExpect(status().isBadRequest());
+  }
+
+  private void mockInventoryItems(Map<String, InventoryItem> mockInventoryItems) {
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any())).thenAnswer(invocation -> {
+      final List<?> productIds = invocation.getArgument(0, List.class);
+      final List<InventoryItem> inventoryItems = productIds.stream()
+          .map(mockInventoryItems::get).filter(Objects::nonNull).collect(Collectors.toList());
+      return pagedResourcesAssembler.toModel(new PageImpl<>(
+          inventoryItems, PageRequest.of(0, 10), inventoryItems.size()));
+    });
+  }
+
   private RequestParametersSnippet pageRequestParameters(ParameterDescriptor... descriptors) {
     return requestParameters(parameterWithName("page").description("0-based page index"),
         parameterWithName("size").description("page size, default 10"),
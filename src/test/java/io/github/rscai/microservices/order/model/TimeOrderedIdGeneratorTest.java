@@ -0,0 +1,42 @@
+package io.github.rscai.microservices.order.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+public class TimeOrderedIdGeneratorTest {
+
+  @Test
+  public void testIdsAreOrderedByCreation() {
+    String previous = TimeOrderedIdGenerator.nextId();
+    for (int i = 0; i < 10000; i++) {
+      String next = TimeOrderedIdGenerator.nextId();
+      assertThat(next.compareTo(previous), greaterThan(0));
+      previous = next;
+    }
+  }
+
+  @Test
+  public void testIdIsUuid7InHex() {
+    String id = TimeOrderedIdGenerator.nextId();
+    assertThat(id.matches("[0-9a-f]{32}"), is(true));
+    UUID uuid = UUID.fromString(String.format("%s-%s-%s-%s-%s", id.substring(0, 8),
+        id.substring(8, 12), id.substring(12, 16), id.substring(16, 20), id.substring(20)));
+    assertThat(uuid.version(), is(7));
+    assertThat(uuid.variant(), is(2));
+    assertThat(Math.abs(System.currentTimeMillis() - (uuid.getMostSignificantBits() >>> 16))
+        < 60000, is(true));
+  }
+
+  @Test
+  public void testBinaryRoundTrip() {
+    String id = TimeOrderedIdGenerator.nextId();
+    byte[] bytes = BinaryIdType.toBytes(id);
+    assertThat(bytes.length, is(BinaryIdType.LENGTH));
+    assertThat(BinaryIdType.toHex(bytes), is(id));
+    assertThat(BinaryIdType.toBytes("unknown").length, is(0));
+  }
+}
@@ -0,0 +1,110 @@
+package io.github.rscai.microservices.order.repository;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.Order.State;
+import io.github.rscai.microservices.order.model.OrderItem;
+import io.github.rscai.microservices.order.service.InventoryClient;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@ActiveProfiles("test")
+@SpringBootTest
+public class OrderRepositoryTest {
+
+  private static final String CUSTOMER_ID_A = "customerA";
+  private static final int ORDER_COUNT = 30;
+  @MockBean
+  private RabbitTemplate mockAmqpTemplate;
+  @MockBean
+  private InventoryClient mockInventoryClient;
+  @Autowired
+  private OrderRepository testObject;
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private Statistics statistics;
+
+  @BeforeEach
+  public void setUp() {
+    for (int i = 0; i < ORDER_COUNT; i++) {
+      Order order = new Order();
+      order.setCustomerId(CUSTOMER_ID_A);
+      order.setItems(Arrays.asList(new OrderItem("productA", 1, BigDecimal.ONE),
+          new OrderItem("productB", 2, BigDecimal.ONE)));
+      order.setAmount(BigDecimal.valueOf(3));
+      order.setState(State.SUBMITTED);
+      testObject.save(order);
+    }
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    statistics.clear();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    statistics.setStatisticsEnabled(false);
+    testObject.deleteAll();
+  }
+
+  @Test
+  public void testFindByStateInLoadsItemsOfPageAtOnce() {
+    Page<Order> orders = testObject
+        .findByStateIn(new State[]{State.SUBMITTED}, PageRequest.of(0, 20));
+
+    assertThat(orders.getContent(), hasSize(20));
+    assertThat(orders.getTotalElements(), is((long) ORDER_COUNT));
+    orders.forEach(order -> assertThat(order.getItems(), hasSize(2)));
+    // page select, count select and one items select
+    assertThat(statistics.getPrepareStatementCount(), lessThanOrEqualTo(3L));
+  }
+
+  @Test
+  public void testFindByCustomerIdLoadsItemsOfPageAtOnce() {
+    Page<Order> orders = testObject.findByCustomerId(CUSTOMER_ID_A, PageRequest.of(1, 20));
+
+    assertThat(orders.getContent(), hasSize(ORDER_COUNT - 20));
+    assertThat(orders.getTotalElements(), is((long) ORDER_COUNT));
+    orders.forEach(order -> assertThat(order.getItems(), hasSize(2)));
+    assertThat(statistics.getPrepareStatementCount(), lessThanOrEqualTo(3L));
+  }
+
+  @Test
+  public void testSaveTransitionedOrderOnlyUpdatesOrderRow() {
+    // a detached order, as SubmitOrderSagaHandler saves it
+    Order order = testObject.findByStateIn(new State[]{State.SUBMITTED}, PageRequest.of(0, 1))
+        .getContent().get(0);
+    assertThat(order.startDelivery(), is(true));
+    statistics.clear();
+
+    new TransactionTemplate(transactionManager).execute(status -> testObject.save(order));
+
+    assertThat(statistics.getEntityUpdateCount(), is(1L));
+    assertThat(statistics.getCollectionRecreateCount(), is(0L));
+    assertThat(statistics.getCollectionRemoveCount(), is(0L));
+    // merge select of the order and its items, and the order update
+    assertThat(statistics.getPrepareStatementCount(), lessThanOrEqualTo(3L));
+    assertThat(testObject.findById(order.getId()).get().getItems(), hasSize(2));
+  }
+}
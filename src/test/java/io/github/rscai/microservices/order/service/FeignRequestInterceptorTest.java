@@ -0,0 +1,117 @@
+package io.github.rscai.microservices.order.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.DefaultOAuth2ClientContext;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
+import org.springframework.security.oauth2.client.token.AccessTokenRequest;
+import org.springframework.security.oauth2.client.token.grant.password.ResourceOwnerPasswordResourceDetails;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+public class FeignRequestInterceptorTest {
+
+  private static final long REFRESH_AHEAD = 100;
+  private AccessTokenProvider accessTokenProvider;
+  private SimpleMeterRegistry meterRegistry;
+  private FeignRequestInterceptor testObject;
+
+  @BeforeEach
+  public void setUp() {
+    accessTokenProvider = mock(AccessTokenProvider.class);
+    meterRegistry = new SimpleMeterRegistry();
+    testObject = new FeignRequestInterceptor(new DefaultOAuth2ClientContext(),
+        new ResourceOwnerPasswordResourceDetails(), meterRegistry, REFRESH_AHEAD, 1000);
+    testObject.setAccessTokenProvider(accessTokenProvider);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    testObject.destroy();
+  }
+
+  @Test
+  public void testConcurrentCallersShareOneRefresh() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    when(accessTokenProvider.obtainAccessToken(any(), any(AccessTokenRequest.class)))
+        .thenAnswer(invocation -> {
+          started.countDown();
+          Thread.sleep(200);
+          return token("token-1", TimeUnit.HOURS.toMillis(1));
+        });
+    ExecutorService callers = Executors.newFixedThreadPool(8);
+    try {
+      List<CompletableFuture<OAuth2AccessToken>> tokens = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        tokens.add(CompletableFuture.supplyAsync(testObject::getToken, callers));
+      }
+      started.await(1, TimeUnit.SECONDS);
+      for (CompletableFuture<OAuth2AccessToken> token : tokens) {
+        assertThat(token.get(5, TimeUnit.SECONDS).getValue(), is("token-1"));
+      }
+    } finally {
+      callers.shutdownNow();
+    }
+
+    verify(accessTokenProvider, times(1))
+        .obtainAccessToken(any(), any(AccessTokenRequest.class));
+    assertThat(meterRegistry.timer("oauth.token.refresh").count(), is(1L));
+  }
+
+  @Test
+  public void testRefreshAheadOfExpiry() throws Exception {
+    // the refresh is scheduled the refresh ahead time before the token expires
+    when(accessTokenProvider.obtainAccessToken(any(), any(AccessTokenRequest.class)))
+        .thenReturn(token("token-1", REFRESH_AHEAD * 3),
+            token("token-2", TimeUnit.HOURS.toMillis(1)));
+
+    assertThat(testObject.getToken().getValue(), is("token-1"));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!"token-2".equals(testObject.getToken().getValue())
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertThat(testObject.getToken().getValue(), is("token-2"));
+    verify(accessTokenProvider, times(2))
+        .obtainAccessToken(any(), any(AccessTokenRequest.class));
+  }
+
+  @Test
+  public void testRefreshFailureCounted() {
+    when(accessTokenProvider.obtainAccessToken(any(), any(AccessTokenRequest.class)))
+        .thenThrow(new IllegalStateException("uaa is down"));
+
+    try {
+      testObject.getToken();
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    assertThat(meterRegistry.counter("oauth.token.refresh.failures").count(), is(1.0));
+  }
+
+  private static OAuth2AccessToken token(String value, long expiresInMillis) {
+    DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+    token.setExpiration(new Date(System.currentTimeMillis() + expiresInMillis));
+    return token;
+  }
+}
@@ -0,0 +1,121 @@
+package io.github.rscai.microservices.order.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.rscai.microservices.order.model.InventoryItem;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.PagedModel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = {"inventory.hedge.enabled=true", "inventory.hedge.min-delay=50",
+    "inventory.hedge.executor.core-pool-size=2", "inventory.hedge.executor.max-pool-size=2"})
+public class InventoryServiceHedgeTest {
+
+  private static final String PRODUCT_ID_A = "productA";
+  @MockBean
+  private RabbitTemplate mockAmqpTemplate;
+  @MockBean
+  private InventoryClient mockInventoryClient;
+  @Autowired
+  private PagedResourcesAssembler<InventoryItem> pagedResourcesAssembler;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Autowired
+  @Qualifier("inventoryHedgeExecutor")
+  private ThreadPoolTaskExecutor inventoryHedgeExecutor;
+  @Autowired
+  private InventoryService testObject;
+
+  @Test
+  public void testSlowPrimaryFastHedgeWins() throws Exception {
+    PagedModel<EntityModel<InventoryItem>> inventoryItems = inventoryItems();
+    CountDownLatch primaryInterrupted = new CountDownLatch(1);
+    double hedges = meterRegistry.counter("inventory.hedges").count();
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any()))
+        .thenAnswer(invocation -> {
+          try {
+            Thread.sleep(5000);
+          } catch (InterruptedException ex) {
+            primaryInterrupted.countDown();
+          }
+          return inventoryItems;
+        })
+        .thenReturn(inventoryItems);
+
+    long start = System.currentTimeMillis();
+    Map<String, InventoryItem> items = testObject
+        .searchByProductIds(Collections.singletonList(PRODUCT_ID_A));
+
+    assertThat(items, hasKey(PRODUCT_ID_A));
+    assertThat(System.currentTimeMillis() - start, lessThan(2000L));
+    assertThat(meterRegistry.counter("inventory.hedges").count(), is(hedges + 1));
+    verify(mockInventoryClient, times(2)).searchByProductIdIn(anyList(), any());
+    // the losing search is stopped instead of holding its thread until it answers
+    assertThat(primaryInterrupted.await(1, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void testHedgePoolSaturatedFallsBackToUnhedged() throws Exception {
+    PagedModel<EntityModel<InventoryItem>> inventoryItems = inventoryItems();
+    double hedges = meterRegistry.counter("inventory.hedges").count();
+    CountDownLatch release = new CountDownLatch(1);
+    // one of both hedge threads is busy, the primary search takes the other one
+    inventoryHedgeExecutor.execute(() -> {
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any()))
+        .thenAnswer(invocation -> {
+          Thread.sleep(300);
+          return inventoryItems;
+        });
+
+    try {
+      Map<String, InventoryItem> items = testObject
+          .searchByProductIds(Collections.singletonList(PRODUCT_ID_A));
+
+      assertThat(items, hasKey(PRODUCT_ID_A));
+      assertThat(meterRegistry.counter("inventory.hedges").count(), is(hedges));
+      verify(mockInventoryClient, times(1)).searchByProductIdIn(anyList(), any());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  private PagedModel<EntityModel<InventoryItem>> inventoryItems() {
+    List<InventoryItem> inventoryItems = Collections.singletonList(
+        new InventoryItem("1", PRODUCT_ID_A, 100, BigDecimal.TEN, new Date(), new Date()));
+    return pagedResourcesAssembler.toModel(
+        new PageImpl<>(inventoryItems, PageRequest.of(0, 10), inventoryItems.size()));
+  }
+}
@@ -0,0 +1,112 @@
+package io.github.rscai.microservices.order.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasKey;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import feign.FeignException.ServiceUnavailable;
+import feign.Request;
+import feign.Request.HttpMethod;
+import feign.RetryableException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.rscai.microservices.order.model.InventoryItem;
+import io.github.rscai.microservices.order.model.InventoryItemQuantityChange;
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("test")
+@SpringBootTest
+public class InventoryServiceTest {
+
+  private static final String PRODUCT_ID_A = "productA";
+  @MockBean
+  private RabbitTemplate mockAmqpTemplate;
+  @MockBean
+  private InventoryClient mockInventoryClient;
+  @Autowired
+  private PagedResourcesAssembler<InventoryItem> pagedResourcesAssembler;
+  @Autowired
+  private CircuitBreakerRegistry circuitBreakerRegistry;
+  @Autowired
+  private InventoryService testObject;
+
+  @AfterEach
+  public void tearDown() {
+    circuitBreakerRegistry.circuitBreaker(InventoryService.CIRCUIT_BREAKER)
+        .transitionToClosedState();
+  }
+
+  @Test
+  public void testSearchRetriedWhenUnavailable() {
+    List<InventoryItem> inventoryItems = Collections.singletonList(
+        new InventoryItem("1", PRODUCT_ID_A, 100, BigDecimal.TEN, new Date(), new Date()));
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any()))
+        .thenThrow(new ServiceUnavailable("inventory is restarting", request(), new byte[]{}))
+        .thenReturn(pagedResourcesAssembler.toModel(
+            new PageImpl<>(inventoryItems, PageRequest.of(0, 10), inventoryItems.size())));
+
+    Map<String, InventoryItem> items = testObject
+        .searchByProductIds(Collections.singletonList(PRODUCT_ID_A));
+
+    assertThat(items, hasKey(PRODUCT_ID_A));
+    verify(mockInventoryClient, times(2)).searchByProductIdIn(anyList(), any());
+  }
+
+  @Test
+  public void testChangeNotRetriedWhenMaybeApplied() {
+    List<InventoryItemQuantityChange> changes = Collections
+        .singletonList(new InventoryItemQuantityChange());
+    when(mockInventoryClient.changeInventoryItemQuantity(anyList()))
+        .thenThrow(new ServiceUnavailable("inventory is restarting", request(), new byte[]{}));
+
+    assertThrows(ServiceUnavailable.class, () -> testObject.changeInventoryItemQuantity(changes));
+    verify(mockInventoryClient, times(1)).changeInventoryItemQuantity(anyList());
+  }
+
+  @Test
+  public void testChangeRetriedWhenNotSent() {
+    List<InventoryItemQuantityChange> changes = Collections
+        .singletonList(new InventoryItemQuantityChange());
+    when(mockInventoryClient.changeInventoryItemQuantity(anyList()))
+        .thenThrow(new RetryableException(-1, "Connection refused", HttpMethod.POST,
+            new ConnectException("Connection refused"), null))
+        .thenReturn(Collections.emptyList());
+
+    testObject.changeInventoryItemQuantity(changes);
+    verify(mockInventoryClient, times(2)).changeInventoryItemQuantity(anyList());
+  }
+
+  @Test
+  public void testSearchAfterDeadline() {
+    assertThrows(DeadlineExceededException.class, () -> Deadline.within(
+        System.currentTimeMillis() - 1,
+        () -> testObject.searchByProductIds(Collections.singletonList(PRODUCT_ID_A))));
+    verify(mockInventoryClient, never()).searchByProductIdIn(anyList(), any());
+  }
+
+  private static Request request() {
+    return Request.create(HttpMethod.GET, "", Collections.emptyMap(), new byte[]{},
+        StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,98 @@
+package io.github.rscai.microservices.order.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import io.github.rscai.microservices.order.model.Order;
+import io.github.rscai.microservices.order.model.Order.State;
+import io.github.rscai.microservices.order.model.Order.Transition;
+import io.github.rscai.microservices.order.model.OrderItem;
+import io.github.rscai.microservices.order.repository.OrderRepository;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("test")
+@SpringBootTest
+public class OrderCacheTest {
+
+  @MockBean
+  private RabbitTemplate mockAmqpTemplate;
+  @MockBean
+  private InventoryClient mockInventoryClient;
+  @Autowired
+  private OrderRepository orderRepository;
+  @Autowired
+  private OrderService orderService;
+  @Autowired
+  private OrderCache testObject;
+
+  private String orderId;
+
+  @BeforeEach
+  public void setUp() {
+    Order order = new Order();
+    order.setCustomerId("customerA");
+    order.setItems(Arrays.asList(new OrderItem("productA", 1, BigDecimal.ONE)));
+    order.setAmount(BigDecimal.ONE);
+    order.setState(State.OPEN);
+    orderId = orderRepository.save(order).getId();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    orderRepository.deleteAll();
+    testObject.invalidateAll();
+  }
+
+  @Test
+  public void testServeSnapshotUntilInvalidated() {
+    assertThat(testObject.findById(orderId).get().getState(), is(State.OPEN));
+    // changed behind the cache
+    orderRepository.transition(orderId, State.OPEN, State.CANCELLED, new Date());
+    assertThat(testObject.findById(orderId).get().getState(), is(State.OPEN));
+
+    testObject.invalidate(orderId);
+    assertThat(testObject.findById(orderId).get().getState(), is(State.CANCELLED));
+  }
+
+  @Test
+  public void testTransitionInvalidates() {
+    assertThat(testObject.findById(orderId).get().getState(), is(State.OPEN));
+
+    orderService.transition(orderId, Transition.CANCEL);
+    assertThat(testObject.findById(orderId).get().getState(), is(State.CANCELLED));
+  }
+
+  @Test
+  public void testServeVersionFromSnapshot() {
+    long version = testObject.findVersionById(orderId).get();
+    // changed behind the cache
+    orderRepository.transition(orderId, State.OPEN, State.CANCELLED, new Date());
+    assertThat(testObject.findVersionById(orderId).get(), is(version));
+
+    testObject.invalidate(orderId);
+    assertThat(testObject.findVersionById(orderId).get(), is(version + 1));
+    assertThat(testObject.findVersionById("missingOrder").isPresent(), is(false));
+  }
+
+  @Test
+  public void testCallersCanNotChangeSnapshot() {
+    testObject.findById(orderId).get().setState(State.CLOSED);
+
+    assertThat(testObject.findById(orderId).get().getState(), is(State.OPEN));
+  }
+
+  @Test
+  public void testUnknownOrderIsNotCached() {
+    assertThat(testObject.findById("unknown").isPresent(), is(false));
+  }
+}
@@ -0,0 +1,94 @@
+package io.github.rscai.microservices.order.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.rscai.microservices.order.model.InventoryItem;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("test")
+@SpringBootTest
+public class ProductPriceCacheTest {
+
+  private static final String PRODUCT_ID_A = "productA";
+  private static final String PRODUCT_ID_B = "productB";
+  private static final String PRODUCT_ID_C = "productC";
+  @MockBean
+  private RabbitTemplate mockAmqpTemplate;
+  @MockBean
+  private InventoryClient mockInventoryClient;
+  @Autowired
+  private PagedResourcesAssembler<InventoryItem> pagedResourcesAssembler;
+  @Autowired
+  private ProductPriceCache testObject;
+
+  @BeforeEach
+  public void setUp() {
+    List<InventoryItem> inventoryItems = Arrays.asList(
+        new InventoryItem("1", PRODUCT_ID_A, 100, BigDecimal.valueOf(100), new Date(), new Date()),
+        new InventoryItem("2", PRODUCT_ID_B, 100, BigDecimal.valueOf(200), new Date(), new Date()));
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any()))
+        .thenReturn(pagedResourcesAssembler.toModel(
+            new PageImpl<>(inventoryItems, PageRequest.of(0, 10), inventoryItems.size())));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    testObject.invalidateAll();
+  }
+
+  @Test
+  public void testLoadOnceThenHit() {
+    Map<String, BigDecimal> unitPrices = testObject
+        .getUnitPrices(Arrays.asList(PRODUCT_ID_A, PRODUCT_ID_B, PRODUCT_ID_A));
+    assertThat(unitPrices.get(PRODUCT_ID_A), is(BigDecimal.valueOf(100)));
+    assertThat(unitPrices.get(PRODUCT_ID_B), is(BigDecimal.valueOf(200)));
+
+    unitPrices = testObject.getUnitPrices(Arrays.asList(PRODUCT_ID_B, PRODUCT_ID_A));
+    assertThat(unitPrices.get(PRODUCT_ID_A), is(BigDecimal.valueOf(100)));
+
+    verify(mockInventoryClient, times(1)).searchByProductIdIn(anyList(), any());
+  }
+
+  @Test
+  public void testInvalidate() {
+    testObject.getUnitPrices(Collections.singletonList(PRODUCT_ID_A));
+    testObject.invalidate(PRODUCT_ID_A);
+    testObject.getUnitPrices(Collections.singletonList(PRODUCT_ID_A));
+
+    verify(mockInventoryClient, times(2)).searchByProductIdIn(anyList(), any());
+  }
+
+  @Test
+  public void testUnknownProductIsNotCached() {
+    Map<String, BigDecimal> unitPrices = testObject
+        .getUnitPrices(Collections.singletonList(PRODUCT_ID_C));
+    assertThat(unitPrices, not(hasKey(PRODUCT_ID_C)));
+    testObject.getUnitPrices(Collections.singletonList(PRODUCT_ID_C));
+
+    verify(mockInventoryClient, times(2)).searchByProductIdIn(anyList(), any());
+  }
+}
@@ -0,0 +1,124 @@
+package io.github.rscai.microservices.order.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.rscai.microservices.order.saga.Saga;
+import io.github.rscai.microservices.order.saga.SubmitOrderSaga;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = {"mq.publisher.confirms-enabled=true",
+    "mq.publisher.retry-interval=10", "mq.publisher.max-retries=2"})
+public class SagaEventPublisherTest {
+
+  @MockBean
+  private RabbitTemplate mockAmqpTemplate;
+  @MockBean
+  private InventoryClient mockInventoryClient;
+  @Autowired
+  private SagaEventPublisher testObject;
+
+  @BeforeEach
+  public void setUp() {
+    when(mockAmqpTemplate.getMessageConverter()).thenReturn(new Jackson2JsonMessageConverter());
+  }
+
+  @Test
+  public void testPublishConfirmed() throws Exception {
+    mockConfirms(true);
+
+    testObject.publishAll(Arrays.asList(saga("1"), saga("2"))).get(1, TimeUnit.SECONDS);
+
+    verify(mockAmqpTemplate, times(2))
+        .send(any(), anyString(), any(Message.class), any(CorrelationData.class));
+    assertThat(testObject.getInFlight(), is(0));
+  }
+
+  @Test
+  public void testRetryNackedMessage() throws Exception {
+    mockConfirms(false, true);
+
+    testObject.publish(saga("1")).get(1, TimeUnit.SECONDS);
+
+    verify(mockAmqpTemplate, times(2))
+        .send(any(), anyString(), any(Message.class), any(CorrelationData.class));
+    assertThat(testObject.getInFlight(), is(0));
+  }
+
+  @Test
+  public void testFailAfterMaxRetries() throws Exception {
+    mockConfirms(false, false, false);
+
+    CompletableFuture<Void> result = testObject.publish(saga("1"));
+    try {
+      result.get(1, TimeUnit.SECONDS);
+    } catch (ExecutionException ex) {
+      assertThat(ex.getCause(), instanceOf(AmqpException.class));
+    }
+    assertThat(result.isCompletedExceptionally(), is(true));
+    verify(mockAmqpTemplate, times(3))
+        .send(any(), anyString(), any(Message.class), any(CorrelationData.class));
+  }
+
+  @Test
+  public void testRetryLaterByAttempt() throws Exception {
+    mockConfirms(true);
+
+    testObject.retryLater(saga("1"), 2).get(1, TimeUnit.SECONDS);
+    // attempts beyond the last retry later queue wait in the last one
+    testObject.retryLater(saga("2"), 9).get(1, TimeUnit.SECONDS);
+
+    ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+    verify(mockAmqpTemplate, times(2)).send(eq("submit-order-saga.retry-later"), anyString(),
+        messageCaptor.capture(), any(CorrelationData.class));
+    assertThat(messageCaptor.getAllValues().get(0).getMessageProperties()
+        .getHeader(SagaEventPublisher.RETRY_ATTEMPT_HEADER), is(2));
+    assertThat(messageCaptor.getAllValues().get(1).getMessageProperties()
+        .getHeader(SagaEventPublisher.RETRY_ATTEMPT_HEADER), is(5));
+  }
+
+  private void mockConfirms(boolean... acks) {
+    AtomicInteger sent = new AtomicInteger();
+    doAnswer(invocation -> {
+      int attempt = sent.getAndIncrement();
+      boolean ack = acks[Math.min(attempt, acks.length - 1)];
+      invocation.<CorrelationData>getArgument(3).getFuture()
+          .set(new Confirm(ack, ack ? null : "nacked"));
+      return null;
+    }).when(mockAmqpTemplate)
+        .send(any(), anyString(), any(Message.class), any(CorrelationData.class));
+  }
+
+  private static SubmitOrderSaga saga(String orderId) {
+    SubmitOrderSaga saga = new SubmitOrderSaga();
+    saga.setOrderId(orderId);
+    saga.setStep(Saga.CREATED);
+    return saga;
+  }
+}
@@ -1,13 +1,16 @@
 package io.github.rscai.microservices.order.service;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -15,7 +18,9 @@ import static org.mockito.Mockito.when;
 import feign.FeignException.Conflict;
 import feign.Request;
 import feign.Request.HttpMethod;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.rscai.microservices.order.model.InventoryItem;
+import io.github.rscai.microservices.order.model.InventoryItemQuantityChange;
 import io.github.rscai.microservices.order.model.Order;
 import io.github.rscai.microservices.order.model.Order.State;
 import io.github.rscai.microservices.order.model.OrderItem;
@@ -26,11 +31,15 @@ import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.MessagePostProcessor;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -41,6 +50,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PagedResourcesAssembler;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.PagedModel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.context.ActiveProfiles;
 
 @ActiveProfiles("test")
@@ -50,6 +61,8 @@ public class SubmitOrderSagaHandlerTest {
   private static final String PRODUCT_ID_A = "productA";
   private static final String PRODUCT_ID_B = "productB";
   private static final String CUSTOMER_ID_A = "customerA";
+  private static final String DEAD_LETTER_QUEUE = "submit-order-saga.dead-letter";
+  private static final String RETRY_LATER_EXCHANGE = "submit-order-saga.retry-later";
   @MockBean
   private RabbitTemplate mockAmqpTemplate;
   @MockBean
@@ -60,6 +73,8 @@ public class SubmitOrderSagaHandlerTest {
   private PagedResourcesAssembler<InventoryItem> pagedResourcesAssembler;
   @Autowired
   private SubmitOrderSagaHandler testObject;
+  @Autowired
+  private CircuitBreakerRegistry circuitBreakerRegistry;
 
   private String orderIdA;
 
@@ -77,6 +92,8 @@ public class SubmitOrderSagaHandlerTest {
   @AfterEach
   public void tearDown() {
     orderRepository.deleteAll();
+    circuitBreakerRegistry.circuitBreaker(InventoryService.CIRCUIT_BREAKER)
+        .transitionToClosedState();
   }
 
   @Test
@@ -305,4 +322,212 @@ public class SubmitOrderSagaHandlerTest {
         () -> fail("can not find order")).getState(), is(State.OPEN));
 
   }
+
+  @Test
+  public void testDecreaseInventoryRetriesLaterWhenCircuitIsOpen() throws Exception {
+    circuitBreakerRegistry.circuitBreaker(InventoryService.CIRCUIT_BREAKER)
+        .transitionToForcedOpenState();
+    SubmitOrderSaga saga = new SubmitOrderSaga();
+    saga.setOrderId(orderIdA);
+    saga.setStep(Saga.CREATED);
+
+    testObject.processSubmitOrderEvent(saga);
+
+    // neither rolled back nor moved on, but parked in the first retry later queue
+    verify(mockInventoryClient, never()).searchByProductIdIn(anyList(), any(Pageable.class));
+    verify(mockAmqpTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    verify(mockAmqpTemplate, times(1)).convertAndSend(eq(RETRY_LATER_EXCHANGE), anyString(),
+        eq(saga), any(MessagePostProcessor.class));
+    assertThat(saga.getStep(), is(Saga.CREATED));
+  }
+
+  @Test
+  public void testDecreaseInventoryInBatch() throws Exception {
+    String orderIdB = saveOpenOrder(PRODUCT_ID_B, 5);
+    mockInventoryItems();
+    when(mockInventoryClient.changeInventoryItemQuantity(anyList()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    SubmitOrderSaga sagaA = new SubmitOrderSaga();
+    sagaA.setOrderId(orderIdA);
+    sagaA.setStep(Saga.CREATED);
+    SubmitOrderSaga sagaB = new SubmitOrderSaga();
+    sagaB.setOrderId(orderIdB);
+    sagaB.setStep(Saga.CREATED);
+    SubmitOrderSaga sagaOfMissingOrder = new SubmitOrderSaga();
+    sagaOfMissingOrder.setOrderId("missingOrder");
+    sagaOfMissingOrder.setStep(Saga.CREATED);
+
+    testObject.processSubmitOrderEvents(messages(sagaA, sagaB, sagaOfMissingOrder));
+
+    // verify one search and one combined change for the whole batch
+    verify(mockInventoryClient, times(1)).searchByProductIdIn(anyList(), any(Pageable.class));
+    ArgumentCaptor<List<InventoryItemQuantityChange>> changesCaptor = ArgumentCaptor
+        .forClass(List.class);
+    verify(mockInventoryClient, times(1)).changeInventoryItemQuantity(changesCaptor.capture());
+    assertThat(changesCaptor.getValue(), hasSize(3));
+    // verify mq
+    ArgumentCaptor<Object> sagaCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(mockAmqpTemplate, times(3)).convertAndSend(anyString(), sagaCaptor.capture());
+    Map<String, String> stepByOrderId = sagaCaptor.getAllValues().stream()
+        .map(SubmitOrderSaga.class::cast)
+        .collect(Collectors.toMap(SubmitOrderSaga::getOrderId, SubmitOrderSaga::getStep));
+    assertThat(stepByOrderId.get(orderIdA), is(SubmitOrderSaga.DECREASED_INVENTORY));
+    assertThat(stepByOrderId.get(orderIdB), is(SubmitOrderSaga.DECREASED_INVENTORY));
+    assertThat(stepByOrderId.get("missingOrder"), is(Saga.ROLLBACK));
+  }
+
+  @Test
+  public void testDecreaseInventoryInBatchFallbackToOrderByOrder() throws Exception {
+    String orderIdB = saveOpenOrder(PRODUCT_ID_B, 500);
+    mockInventoryItems();
+    Conflict conflict = new Conflict("decrease inventory failed",
+        Request.create(HttpMethod.POST, StringUtils.EMPTY, Collections.emptyMap(), new byte[]{},
+            StandardCharsets.UTF_8), new byte[]{});
+    when(mockInventoryClient.changeInventoryItemQuantity(anyList())).thenAnswer(invocation -> {
+      List<InventoryItemQuantityChange> changes = invocation.getArgument(0);
+      if (changes.stream().anyMatch(change -> change.getQuantityChange() < -200)) {
+        throw conflict;
+      }
+      return changes;
+    });
+
+    SubmitOrderSaga sagaA = new SubmitOrderSaga();
+    sagaA.setOrderId(orderIdA);
+    sagaA.setStep(Saga.CREATED);
+    SubmitOrderSaga sagaB = new SubmitOrderSaga();
+    sagaB.setOrderId(orderIdB);
+    sagaB.setStep(Saga.CREATED);
+
+    testObject.processSubmitOrderEvents(messages(sagaA, sagaB));
+
+    // verify combined change then one change per order
+    verify(mockInventoryClient, times(3)).changeInventoryItemQuantity(anyList());
+    // verify mq
+    ArgumentCaptor<Object> sagaCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(mockAmqpTemplate, times(2)).convertAndSend(anyString(), sagaCaptor.capture());
+    Map<String, String> stepByOrderId = sagaCaptor.getAllValues().stream()
+        .map(SubmitOrderSaga.class::cast)
+        .collect(Collectors.toMap(SubmitOrderSaga::getOrderId, SubmitOrderSaga::getStep));
+    assertThat(stepByOrderId.get(orderIdA), is(SubmitOrderSaga.DECREASED_INVENTORY));
+    assertThat(stepByOrderId.get(orderIdB), is(SubmitOrderSaga.DECREASED_INVENTORY_ROLLBACK));
+  }
+
+  @Test
+  public void testRetryFailedEventLater() throws Exception {
+    String orderIdOfUnknownProduct = saveOpenOrder("unknownProduct", 1);
+    mockInventoryItems();
+    SubmitOrderSaga saga = new SubmitOrderSaga();
+    saga.setOrderId(orderIdOfUnknownProduct);
+    saga.setStep(Saga.CREATED);
+
+    testObject.processSubmitOrderEvent(saga, 2);
+
+    verify(mockAmqpTemplate, times(1)).convertAndSend(eq(RETRY_LATER_EXCHANGE), anyString(),
+        eq(saga), any(MessagePostProcessor.class));
+    verify(mockAmqpTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    assertThat(saga.getStep(), is(Saga.CREATED));
+  }
+
+  @Test
+  public void testDeadLetterFailedEventOfBatch() throws Exception {
+    String orderIdOfUnknownProduct = saveOpenOrder("unknownProduct", 1);
+    mockInventoryItems();
+    when(mockInventoryClient.changeInventoryItemQuantity(anyList()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    SubmitOrderSaga sagaA = new SubmitOrderSaga();
+    sagaA.setOrderId(orderIdA);
+    sagaA.setStep(Saga.CREATED);
+    SubmitOrderSaga sagaOfUnknownProduct = new SubmitOrderSaga();
+    sagaOfUnknownProduct.setOrderId(orderIdOfUnknownProduct);
+    sagaOfUnknownProduct.setStep(Saga.CREATED);
+
+    testObject.processSubmitOrderEvents(messages(sagaA, sagaOfUnknownProduct));
+
+    // verify the failed event comes back after a delay instead of being tried again at once
+    verify(mockInventoryClient, times(1)).searchByProductIdIn(anyList(), any(Pageable.class));
+    verify(mockAmqpTemplate, times(1)).convertAndSend(eq(RETRY_LATER_EXCHANGE), anyString(),
+        eq(sagaOfUnknownProduct), any(MessagePostProcessor.class));
+    verify(mockAmqpTemplate, never()).convertAndSend(eq(""), eq(DEAD_LETTER_QUEUE),
+        any(Object.class));
+    ArgumentCaptor<Object> sagaCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(mockAmqpTemplate, times(1)).convertAndSend(anyString(), sagaCaptor.capture());
+    SubmitOrderSaga next = (SubmitOrderSaga) sagaCaptor.getValue();
+    assertThat(next.getOrderId(), is(orderIdA));
+    assertThat(next.getStep(), is(SubmitOrderSaga.DECREASED_INVENTORY));
+    assertThat(sagaOfUnknownProduct.getStep(), is(Saga.CREATED));
+
+    // the last attempt fails as well
+    clearInvocations(mockAmqpTemplate);
+    testObject.processSubmitOrderEvents(Collections.singletonList(
+        MessageBuilder.withPayload(sagaOfUnknownProduct)
+            .setHeader(SagaEventPublisher.RETRY_ATTEMPT_HEADER, 5).build()));
+
+    // verify it is parked instead of republished
+    verify(mockAmqpTemplate, times(1)).convertAndSend(eq(""), eq(DEAD_LETTER_QUEUE),
+        eq(sagaOfUnknownProduct));
+    verify(mockAmqpTemplate, never()).convertAndSend(eq(RETRY_LATER_EXCHANGE), anyString(),
+        any(Object.class), any(MessagePostProcessor.class));
+  }
+
+  @Test
+  public void testRetryLaterOnlyDeferredEventOfBatch() throws Exception {
+    circuitBreakerRegistry.circuitBreaker(InventoryService.CIRCUIT_BREAKER)
+        .transitionToForcedOpenState();
+    String orderIdB = saveOpenOrder(PRODUCT_ID_B, 5);
+    SubmitOrderSaga sagaA = new SubmitOrderSaga();
+    sagaA.setOrderId(orderIdA);
+    sagaA.setStep(SubmitOrderSaga.DECREASED_INVENTORY);
+    SubmitOrderSaga sagaB = new SubmitOrderSaga();
+    sagaB.setOrderId(orderIdB);
+    sagaB.setStep(Saga.CREATED);
+
+    testObject.processSubmitOrderEvents(messages(sagaA, sagaB));
+
+    // verify the submitted order moves on once, only the deferred event waits for a retry
+    verify(mockInventoryClient, never()).searchByProductIdIn(anyList(), any(Pageable.class));
+    ArgumentCaptor<Object> sagaCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(mockAmqpTemplate, times(1)).convertAndSend(anyString(), sagaCaptor.capture());
+    SubmitOrderSaga next = (SubmitOrderSaga) sagaCaptor.getValue();
+    assertThat(next.getOrderId(), is(orderIdA));
+    assertThat(next.getStep(), is(SubmitOrderSaga.SUBMITTED_STATUS));
+    verify(mockAmqpTemplate, times(1)).convertAndSend(eq(RETRY_LATER_EXCHANGE), anyString(),
+        eq(sagaB), any(MessagePostProcessor.class));
+    assertThat(sagaB.getStep(), is(Saga.CREATED));
+    assertThat(orderRepository.findById(orderIdA).orElseGet(
+        () -> fail("can not find order")).getState(), is(State.SUBMITTED));
+  }
+
+  private static List<Message<SubmitOrderSaga>> messages(SubmitOrderSaga... sagas) {
+    return Arrays.stream(sagas).map(saga -> MessageBuilder.withPayload(saga).build())
+        .collect(Collectors.toList());
+  }
+
+  private String saveOpenOrder(String productId, int quantity) {
+    Order order = new Order();
+    order.setCustomerId(CUSTOMER_ID_A);
+    order.setItems(Collections.singletonList(new OrderItem(productId, quantity, BigDecimal.TEN)));
+    order.setAmount(BigDecimal.TEN.multiply(BigDecimal.valueOf(quantity)));
+    order.setState(State.OPEN);
+    return orderRepository.save(order).getId();
+  }
+
+  private void mockInventoryItems() {
+    InventoryItem itemA = new InventoryItem();
+    itemA.setId("itemA");
+    itemA.setProductId(PRODUCT_ID_A);
+    itemA.setQuantity(100);
+    itemA.setUnitPrice(BigDecimal.TEN);
+    InventoryItem itemB = new InventoryItem();
+    itemB.setId("itemB");
+    itemB.setProductId(PRODUCT_ID_B);
+    itemB.setQuantity(200);
+    itemB.setUnitPrice(BigDecimal.TEN);
+    PageImpl<InventoryItem> page = new PageImpl<>(Arrays.asList(itemA, itemB),
+        PageRequest.of(0, 10), 2);
+    PagedModel<EntityModel<InventoryItem>> inventoryItems = pagedResourcesAssembler.toModel(page);
+    when(mockInventoryClient.searchByProductIdIn(anyList(), any(Pageable.class)))
+        .thenReturn(inventoryItems);
+  }
 }